@@ -0,0 +1,55 @@
+package com.gnarwhal.ld48.engine.assets;
+
+// Handle to an asset an AssetManager is loading, the asset itself is null until it is ready
+public class Asset<T> {
+
+	public static final int
+		QUEUED   = 0,
+		DECODING = 1,
+		DECODED  = 2,
+		READY    = 3,
+		FAILED   = 4;
+
+	final String path;
+	final int priority;
+	final long sequence;
+	final AssetLoader<Object, T> loader;
+
+	volatile int state;
+	Object data;
+	volatile T value;
+
+	@SuppressWarnings("unchecked")
+	Asset(String path, int priority, long sequence, AssetLoader<?, T> loader) {
+		this.path     = path;
+		this.priority = priority;
+		this.sequence = sequence;
+		this.loader   = (AssetLoader<Object, T>) loader;
+		state = QUEUED;
+	}
+
+	public T get() {
+		return value;
+	}
+
+	public boolean isReady() {
+		return state == READY;
+	}
+
+	// Finished one way or another
+	public boolean isDone() {
+		return state == READY || state == FAILED;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+}
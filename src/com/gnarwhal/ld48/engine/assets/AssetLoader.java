@@ -0,0 +1,12 @@
+package com.gnarwhal.ld48.engine.assets;
+
+import java.io.IOException;
+
+// Splits loading an asset in two: decode runs on a worker and must not touch GL or AL, upload runs on
+// the context thread with whatever decode produced
+public interface AssetLoader<D, T> {
+
+	D decode(String path) throws IOException;
+
+	T upload(D data);
+}
@@ -0,0 +1,218 @@
+package com.gnarwhal.ld48.engine.assets;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+// Loads assets in the background. Asking for one returns a handle straight away, workers decode the
+// file and update then uploads what they decoded on the context thread, stopping for the frame once
+// the upload budget is spent. Higher priorities are decoded and uploaded first, equal priorities in
+// the order they were asked for
+public class AssetManager {
+
+	private static final int DEFAULT_UPLOAD_BUDGET = 2000000;
+
+	private PriorityQueue<Asset<?>> decodes, uploads;
+	private HashMap<String, Asset<?>> assets;
+	private long sequence;
+
+	private Thread[] workers;
+	private boolean stopping;
+
+	private long uploadBudget;
+
+	private int requested, loaded, failed;
+	private int lastUploads;
+	private long lastUploadTime;
+
+	public AssetManager(int threads) {
+		this(threads, DEFAULT_UPLOAD_BUDGET);
+	}
+
+	// Upload budget is in nanoseconds per call to update
+	public AssetManager(int threads, long uploadBudget) {
+		this.uploadBudget = uploadBudget;
+		decodes = new PriorityQueue<>(AssetManager::compare);
+		uploads = new PriorityQueue<>(AssetManager::compare);
+		assets  = new HashMap<>();
+
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Thread(this::work, "asset-loader-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	private static int compare(Asset<?> a, Asset<?> b) {
+		return a.priority != b.priority ? Integer.compare(b.priority, a.priority) : Long.compare(a.sequence, b.sequence);
+	}
+
+	// Asking for a path that is already loading hands back the same handle, it must be asked for with
+	// the same kind of loader
+	@SuppressWarnings("unchecked")
+	public synchronized <T> Asset<T> load(String path, int priority, AssetLoader<?, T> loader) {
+		Asset<?> existing = assets.get(path);
+		if (existing != null) {
+			if (existing.loader.getClass() != loader.getClass()) {
+				throw new RuntimeException("Asset already loading with a different loader: " + path);
+			}
+			return (Asset<T>) existing;
+		}
+
+		Asset<T> asset = new Asset<>(path, priority, sequence++, loader);
+		assets.put(path, asset);
+		decodes.add(asset);
+		++requested;
+		notify();
+		return asset;
+	}
+
+	private void work() {
+		while (true) {
+			Asset<?> asset;
+			synchronized (this) {
+				while (decodes.isEmpty() && !stopping) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (stopping) {
+					return;
+				}
+				asset = decodes.poll();
+				asset.state = Asset.DECODING;
+			}
+
+			Object data = null;
+			boolean decoded = false;
+			try {
+				data = asset.loader.decode(asset.path);
+				decoded = true;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			synchronized (this) {
+				if (decoded) {
+					asset.data  = data;
+					asset.state = Asset.DECODED;
+					uploads.add(asset);
+				} else {
+					asset.state = Asset.FAILED;
+					++failed;
+				}
+			}
+		}
+	}
+
+	// Call once a frame on the context thread. At least one asset is uploaded whenever any are waiting,
+	// so a single upload larger than the budget still gets through
+	public void update() {
+		long start = System.nanoTime();
+		int count = 0;
+		while (true) {
+			Asset<?> asset;
+			synchronized (this) {
+				asset = uploads.poll();
+			}
+			if (asset == null) {
+				break;
+			}
+			upload(asset);
+			++count;
+			if (System.nanoTime() - start >= uploadBudget) {
+				break;
+			}
+		}
+		lastUploads    = count;
+		lastUploadTime = System.nanoTime() - start;
+	}
+
+	private <T> void upload(Asset<T> asset) {
+		try {
+			asset.value = asset.loader.upload(asset.data);
+			asset.data  = null;
+			asset.state = Asset.READY;
+			synchronized (this) {
+				++loaded;
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			asset.data  = null;
+			asset.state = Asset.FAILED;
+			synchronized (this) {
+				++failed;
+			}
+		}
+	}
+
+	// Blocks until everything asked for so far is ready or has failed, uploading as it goes
+	public void finish() {
+		while (!isIdle()) {
+			update();
+			synchronized (this) {
+				if (uploads.isEmpty() && !isIdle()) {
+					try {
+						wait(1);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized boolean isIdle() {
+		return loaded + failed == requested;
+	}
+
+	public void setUploadBudget(long uploadBudget) {
+		this.uploadBudget = uploadBudget;
+	}
+
+	// Assets waiting on a worker
+	public synchronized int getDecodeQueueDepth() {
+		return decodes.size();
+	}
+
+	// Assets decoded and waiting on update
+	public synchronized int getUploadQueueDepth() {
+		return uploads.size();
+	}
+
+	public synchronized int getRequested() {
+		return requested;
+	}
+
+	public synchronized int getLoaded() {
+		return loaded;
+	}
+
+	public synchronized int getFailed() {
+		return failed;
+	}
+
+	// Fraction of everything asked for that has finished loading, failures included
+	public synchronized float getProgress() {
+		return requested == 0 ? 1 : (float) (loaded + failed) / requested;
+	}
+
+	// Assets uploaded and nanoseconds spent by the last update
+	public int getLastUploads() {
+		return lastUploads;
+	}
+
+	public long getLastUploadTime() {
+		return lastUploadTime;
+	}
+
+	public void destroy() {
+		synchronized (this) {
+			stopping = true;
+			notifyAll();
+		}
+	}
+}
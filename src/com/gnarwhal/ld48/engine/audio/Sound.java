@@ -1,16 +1,39 @@
 package com.gnarwhal.ld48.engine.audio;
 
+import com.gnarwhal.ld48.engine.assets.AssetLoader;
 import org.lwjgl.openal.AL10;
 
+import java.io.IOException;
+
 public class Sound {
 
+	// Reads the wave on an AssetManager worker, only the buffer and source are made on the AL thread
+	public static final AssetLoader<WaveData, Sound> LOADER = new AssetLoader<WaveData, Sound>() {
+		@Override
+		public WaveData decode(String path) throws IOException {
+			WaveData data = WaveData.create(path);
+			if (data == null) {
+				throw new IOException("Failed to read sound: " + path);
+			}
+			return data;
+		}
+
+		@Override
+		public Sound upload(WaveData data) {
+			return new Sound(data);
+		}
+	};
+
 	private int buffer;
 	private int sourceId;
 	
 	public Sound(String path) {
+		this(WaveData.create(path));
+	}
+
+	public Sound(WaveData waveData) {
 		sourceId = AL10.alGenSources();
 		buffer = AL10.alGenBuffers();
-		WaveData waveData = WaveData.create(path);
 		AL10.alBufferData(buffer, waveData.format, waveData.data, waveData.samplerate);
 		AL10.alSourcei(sourceId, AL10.AL_BUFFER, buffer);
 		AL10.alSourcef(sourceId, AL10.AL_GAIN, 1);
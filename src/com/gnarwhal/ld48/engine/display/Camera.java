@@ -8,12 +8,14 @@ public class Camera {
 	private Matrix4f projection, projView;
 	
 	private float width, height;
-	private Vector3f position;
+	private Vector3f position, previous, interpolated;
 	private float rotation;
 	
 	public Camera(float width, float height) {
 		setDims(width, height);
 		position = new Vector3f();
+		previous = new Vector3f();
+		interpolated = new Vector3f();
 		rotation = 0;
 		projView = new Matrix4f();
 	}
@@ -28,6 +30,17 @@ public class Camera {
 		projection.translate(position.negate(new Vector3f()), projView).rotateZ(-rotation);
 	}
 	
+	// Remembers where the camera was before a simulation tick moves it
+	public void snapshot() {
+		previous.set(position);
+	}
+	
+	// Places the camera between its last two ticks for rendering
+	public void interpolate(float alpha) {
+		previous.lerp(position, alpha, interpolated).negate();
+		projection.translate(interpolated, projView).rotateZ(-rotation);
+	}
+	
 	public Matrix4f getProjection() {
 		return new Matrix4f(projection);
 	}
@@ -35,6 +48,11 @@ public class Camera {
 	public Matrix4f getMatrix() {
 		return new Matrix4f(projView);
 	}
+
+	// Copies into dest rather than allocating, for code that runs every draw
+	public Matrix4f getMatrix(Matrix4f dest) {
+		return dest.set(projView);
+	}
 	
 	public float getX() {
 		return position.x;
@@ -44,6 +62,24 @@ public class Camera {
 		return position.y;
 	}
 	
+	// Where the camera was as of the last snapshot
+	public float getPreviousX() {
+		return previous.x;
+	}
+	
+	public float getPreviousY() {
+		return previous.y;
+	}
+	
+	// Where the camera was last drawn from by interpolate
+	public float getRenderX() {
+		return -interpolated.x;
+	}
+	
+	public float getRenderY() {
+		return -interpolated.y;
+	}
+	
 	public Vector3f getPosition() {
 		return new Vector3f(position);
 	}
@@ -90,6 +126,10 @@ public class Camera {
 		position.add(transform);
 	}
 	
+	public float getRotation() {
+		return rotation;
+	}
+	
 	public void setRotation(float angle) {
 		rotation = angle;
 	}
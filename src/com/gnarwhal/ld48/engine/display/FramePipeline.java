@@ -0,0 +1,102 @@
+package com.gnarwhal.ld48.engine.display;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Builds each frame's render queue on a worker while the context's thread draws the one before it.
+// The two queues alternate, and the handoff is a pair of counters with parking rather than a lock:
+// the context's thread requests frame n, the worker fills queue n % 2 and publishes that it is done,
+// and meanwhile the context's thread executes frame n - 1 from the other queue. A frame is drawn one
+// frame after it was requested
+public class FramePipeline {
+
+	public interface Preparer {
+		// Runs on the worker, must submit to the queue and not touch GL
+		void prepare(RenderQueue queue);
+	}
+
+	private Preparer preparer;
+	private RenderQueue[] queues;
+	private Thread worker, owner;
+
+	// Frames requested by the owner and prepared by the worker, each only ever written by one thread
+	private volatile long requested, prepared;
+	private volatile boolean stopping;
+
+	// Nanoseconds the last frame spent preparing on the worker, executing and waiting on the owner
+	private volatile long prepareTime;
+	private long executeTime, waitTime;
+
+	public FramePipeline(Preparer preparer) {
+		this.preparer = preparer;
+		queues = new RenderQueue[] { new RenderQueue(0), new RenderQueue(1) };
+		owner  = Thread.currentThread();
+		worker = new Thread(this::work, "render-prepare");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void work() {
+		while (!stopping) {
+			long frame = prepared + 1;
+			if (frame > requested) {
+				LockSupport.park(this);
+				continue;
+			}
+
+			long start = System.nanoTime();
+			preparer.prepare(queues[(int) (frame & 1)]);
+			prepareTime = System.nanoTime() - start;
+
+			prepared = frame;
+			LockSupport.unpark(owner);
+		}
+	}
+
+	// Blocks until the worker has finished the last requested frame, after which it reads nothing until
+	// the next request. Call before changing anything the preparer reads
+	public void await() {
+		long start = System.nanoTime();
+		while (prepared < requested) {
+			LockSupport.park(this);
+		}
+		waitTime = System.nanoTime() - start;
+	}
+
+	// Starts the worker on the next frame, everything the preparer reads must be ready for it
+	public void request() {
+		++requested;
+		LockSupport.unpark(worker);
+	}
+
+	// Draws the frame prepared before the latest request, if there is one. Only call on the context's thread
+	public void execute() {
+		long start = System.nanoTime();
+		long frame = requested - 1;
+		if (frame > 0) {
+			queues[(int) (frame & 1)].execute();
+		}
+		executeTime = System.nanoTime() - start;
+	}
+
+	// The queue last executed
+	public RenderQueue getExecuted() {
+		return queues[(int) ((requested - 1) & 1)];
+	}
+
+	public long getPrepareTime() {
+		return prepareTime;
+	}
+
+	public long getExecuteTime() {
+		return executeTime;
+	}
+
+	public long getWaitTime() {
+		return waitTime;
+	}
+
+	public void destroy() {
+		stopping = true;
+		LockSupport.unpark(worker);
+	}
+}
@@ -33,7 +33,7 @@ public class Framebuffer {
 	Framebuffer addColorAttachment(Texture texture) {
 		if (colorBuf == 0) {
 			int id = glGenTextures();
-			glBindTexture(GL_TEXTURE_2D, id);
+			GLState.bindTexture(0, id);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP);
@@ -46,7 +46,7 @@ public class Framebuffer {
 	Framebuffer addDepthTextureAttachment(Texture texture) {
 		if (depthTex == 0) {
 			int id = glGenTextures();
-			glBindTexture(GL_TEXTURE_2D, id);
+			GLState.bindTexture(0, id);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP);
 			glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP);
@@ -68,7 +68,7 @@ public class Framebuffer {
 	}
 
 	void bind() {
-		glBindTexture(GL_TEXTURE_2D, 0);
+		GLState.bindTexture(0, 0);
 		glBindFramebuffer(GL_FRAMEBUFFER, fbo);
 		glViewport(0, 0, width, height);
 
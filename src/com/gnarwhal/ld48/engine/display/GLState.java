@@ -0,0 +1,165 @@
+package com.gnarwhal.ld48.engine.display;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+
+// Mirrors the GL state the engine changes and drops calls that would set it to what it already is.
+// There is one context, so everything is static and must only be touched from its thread. State
+// starts out unknown, so the first call of each kind always goes through
+public class GLState {
+
+	private static final int UNKNOWN = -1;
+
+	private static final int TEXTURE_UNITS = 16;
+
+	private static int program, vao, activeUnit;
+	private static int[] textures = new int[TEXTURE_UNITS];
+	private static int blend, blendSource, blendDestination;
+
+	// Reused for every matrix upload so none of them allocate
+	private static final FloatBuffer matrix = BufferUtils.createFloatBuffer(16);
+
+	// Calls made and calls dropped since the last resetCounts
+	private static int issued, avoided;
+
+	static {
+		invalidate();
+	}
+
+	// Forgets everything, for after GL has been called around the tracker
+	public static void invalidate() {
+		program    = UNKNOWN;
+		vao        = UNKNOWN;
+		activeUnit = UNKNOWN;
+		for (int i = 0; i < TEXTURE_UNITS; ++i) {
+			textures[i] = UNKNOWN;
+		}
+		blend            = UNKNOWN;
+		blendSource      = UNKNOWN;
+		blendDestination = UNKNOWN;
+	}
+
+	public static void useProgram(int program) {
+		if (GLState.program == program) {
+			++avoided;
+			return;
+		}
+		glUseProgram(program);
+		GLState.program = program;
+		++issued;
+	}
+
+	public static void bindVertexArray(int vao) {
+		if (GLState.vao == vao) {
+			++avoided;
+			return;
+		}
+		glBindVertexArray(vao);
+		GLState.vao = vao;
+		++issued;
+	}
+
+	// Leaves the unit active even when the texture is already bound, callers may go on to touch it
+	public static void bindTexture(int unit, int texture) {
+		activeTexture(unit);
+		if (textures[unit] == texture) {
+			++avoided;
+			return;
+		}
+		glBindTexture(GL_TEXTURE_2D, texture);
+		textures[unit] = texture;
+		++issued;
+	}
+
+	private static void activeTexture(int unit) {
+		if (activeUnit == unit) {
+			++avoided;
+			return;
+		}
+		glActiveTexture(GL_TEXTURE0 + unit);
+		activeUnit = unit;
+		++issued;
+	}
+
+	public static void setBlend(boolean enabled) {
+		int state = enabled ? 1 : 0;
+		if (blend == state) {
+			++avoided;
+			return;
+		}
+		if (enabled) {
+			glEnable(GL_BLEND);
+		} else {
+			glDisable(GL_BLEND);
+		}
+		blend = state;
+		++issued;
+	}
+
+	public static void blendFunc(int source, int destination) {
+		if (blendSource == source && blendDestination == destination) {
+			++avoided;
+			return;
+		}
+		glBlendFunc(source, destination);
+		blendSource      = source;
+		blendDestination = destination;
+		++issued;
+	}
+
+	// Uploads to the program in use, the caller is the one that knows whether the value changed
+	public static void uniformMatrix4(int location, Matrix4f value) {
+		value.get(matrix);
+		glUniformMatrix4fv(location, false, matrix);
+		++issued;
+	}
+
+	// Lets objects being deleted drop out of the cache, so a new one given the same name still binds
+	public static void deletedProgram(int program) {
+		if (GLState.program == program) {
+			GLState.program = UNKNOWN;
+		}
+	}
+
+	public static void deletedVertexArray(int vao) {
+		if (GLState.vao == vao) {
+			GLState.vao = UNKNOWN;
+		}
+	}
+
+	public static void deletedTexture(int texture) {
+		for (int i = 0; i < TEXTURE_UNITS; ++i) {
+			if (textures[i] == texture) {
+				textures[i] = UNKNOWN;
+			}
+		}
+	}
+
+	// For state the tracker skips on behalf of someone else, like a uniform that already holds its value
+	public static void countAvoided() {
+		++avoided;
+	}
+
+	public static int getIssued() {
+		return issued;
+	}
+
+	public static int getAvoided() {
+		return avoided;
+	}
+
+	// Call once a frame so the counts cover a single frame
+	public static void resetCounts() {
+		issued  = 0;
+		avoided = 0;
+	}
+}
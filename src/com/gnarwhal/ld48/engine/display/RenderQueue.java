@@ -0,0 +1,162 @@
+package com.gnarwhal.ld48.engine.display;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+// Collects a frame's draws as commands with a 64 bit sort key and runs them in key order. From the top
+// bit down a key holds the layer, a depth within the layer, then the shader, texture and mesh, so
+// layers and depths always draw in order and everything sharing both is grouped by state to change
+// as little as possible between draws. Commands live in arrays reused from frame to frame, so once
+// they have grown to fit a frame nothing more is allocated. Building and running a queue can happen on
+// different threads, a FramePipeline keeps two so one fills while the other draws
+public class RenderQueue {
+
+	public interface Command {
+		// View is the camera's matrix as it was at begin. Argument is whatever the command was submitted
+		// with, an index into the submitter's own data say
+		void execute(Matrix4f view, int argument);
+	}
+
+	private static final int
+		LAYER_BITS   = 4,
+		DEPTH_BITS   = 24,
+		SHADER_BITS  = 8,
+		TEXTURE_BITS = 16,
+		MESH_BITS    = 12;
+
+	private static final int
+		MESH_SHIFT    = 0,
+		TEXTURE_SHIFT = MESH_SHIFT    + MESH_BITS,
+		SHADER_SHIFT  = TEXTURE_SHIFT + TEXTURE_BITS,
+		DEPTH_SHIFT   = SHADER_SHIFT  + SHADER_BITS,
+		LAYER_SHIFT   = DEPTH_SHIFT   + DEPTH_BITS;
+
+	public static final int
+		MAX_LAYER = (1 << LAYER_BITS) - 1,
+		MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	// Which of a pair of queues this is, submitters keep per frame data apart by it
+	private int slot;
+	private Matrix4f view;
+
+	private int count;
+	private long[] keys;
+	private Command[] commands;
+	private int[] arguments;
+
+	// The sort ping pongs between these, sortedOrder ends up holding command indices in key order
+	private long[] sortedKeys, scratchKeys;
+	private int[] sortedOrder, scratchOrder;
+	private int[] histogram;
+
+	public RenderQueue() {
+		this(0);
+	}
+
+	public RenderQueue(int slot) {
+		this.slot = slot;
+		view = new Matrix4f();
+		allocate(256);
+		histogram = new int[RADIX];
+	}
+
+	private void allocate(int capacity) {
+		keys      = Arrays.copyOf(keys == null ? new long[0] : keys, capacity);
+		commands  = Arrays.copyOf(commands == null ? new Command[0] : commands, capacity);
+		arguments = Arrays.copyOf(arguments == null ? new int[0] : arguments, capacity);
+
+		sortedKeys   = new long[capacity];
+		scratchKeys  = new long[capacity];
+		sortedOrder  = new int[capacity];
+		scratchOrder = new int[capacity];
+	}
+
+	// Layer and depth keep their order exactly. Shader, texture and mesh only group draws together, ids
+	// too large for their bits are wrapped, which can split a group but never misorders anything
+	public static long key(int layer, int depth, int shader, int texture, int mesh) {
+		return ((long) (layer   & MAX_LAYER)                  << LAYER_SHIFT)
+			 | ((long) (depth   & MAX_DEPTH)                  << DEPTH_SHIFT)
+			 | ((long) (shader  & ((1 << SHADER_BITS)  - 1)) << SHADER_SHIFT)
+			 | ((long) (texture & ((1 << TEXTURE_BITS) - 1)) << TEXTURE_SHIFT)
+			 | ((long) (mesh    & ((1 << MESH_BITS)    - 1)) << MESH_SHIFT);
+	}
+
+	// Starts a frame seen through the camera as it is now
+	public void begin(Camera camera) {
+		camera.getMatrix(view);
+		for (int i = 0; i < count; ++i) {
+			commands[i] = null;
+		}
+		count = 0;
+	}
+
+	public void submit(long key, Command command, int argument) {
+		if (count == keys.length) {
+			allocate(count * 2);
+		}
+		keys[count]      = key;
+		commands[count]  = command;
+		arguments[count] = argument;
+		++count;
+	}
+
+	// Sorts everything submitted since begin and runs it
+	public void execute() {
+		sort();
+		for (int i = 0; i < count; ++i) {
+			int command = sortedOrder[i];
+			commands[command].execute(view, arguments[command]);
+		}
+	}
+
+	// Least significant digit first radix sort, stable so equal keys run in the order they came in.
+	// Digits every key agrees on are skipped, which with few layers and shaders is most of them
+	private void sort() {
+		System.arraycopy(keys, 0, sortedKeys, 0, count);
+		for (int i = 0; i < count; ++i) {
+			sortedOrder[i] = i;
+		}
+
+		for (int shift = 0; shift < 64 && count > 1; shift += RADIX_BITS) {
+			Arrays.fill(histogram, 0);
+			for (int i = 0; i < count; ++i) {
+				++histogram[(int) (sortedKeys[i] >>> shift) & (RADIX - 1)];
+			}
+			if (histogram[(int) (sortedKeys[0] >>> shift) & (RADIX - 1)] == count) {
+				continue;
+			}
+
+			int total = 0;
+			for (int i = 0; i < RADIX; ++i) {
+				int digits = histogram[i];
+				histogram[i] = total;
+				total += digits;
+			}
+			for (int i = 0; i < count; ++i) {
+				int slot = histogram[(int) (sortedKeys[i] >>> shift) & (RADIX - 1)]++;
+				scratchKeys[slot]  = sortedKeys[i];
+				scratchOrder[slot] = sortedOrder[i];
+			}
+
+			long[] keys = sortedKeys;
+			sortedKeys  = scratchKeys;
+			scratchKeys = keys;
+			int[] order  = sortedOrder;
+			sortedOrder  = scratchOrder;
+			scratchOrder = order;
+		}
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	// Commands submitted since begin
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,334 @@
+package com.gnarwhal.ld48.engine.display;
+
+import com.gnarwhal.ld48.engine.model.Vao;
+import com.gnarwhal.ld48.engine.shaders.SpriteShader;
+import com.gnarwhal.ld48.engine.texture.Texture;
+import com.gnarwhal.ld48.engine.texture.TextureAtlas;
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+// Collects textured quads over a frame and draws them in one call per run of texture, either straight
+// away with flush or through a RenderQueue with submit. Sprites are stable sorted by layer and then
+// texture, so lower layers still draw underneath higher ones but the order between different textures
+// within a layer is not kept. Sprites are drawn and prepared on whichever thread builds the frame, only
+// the upload and the draws themselves need the context
+public class SpriteBatch {
+
+	// Everything one prepared frame needs to draw, two of them so one can be built while the other draws
+	private static class Frame {
+		private int capacity;
+		private FloatBuffer positions, texCoords, rotations, regions;
+		private int sprites;
+		private boolean uploaded;
+
+		// Runs of one texture, the layer is the one the run starts in
+		private int runs;
+		private int[] runFirst, runCount, runLayer;
+		private Texture[] runTexture;
+
+		private void reserve(int sprites) {
+			if (capacity >= sprites) {
+				return;
+			}
+			capacity   = Math.max(sprites, capacity * 2);
+			positions  = BufferUtils.createFloatBuffer(capacity * 4 * 3);
+			texCoords  = BufferUtils.createFloatBuffer(capacity * 4 * 2);
+			rotations  = BufferUtils.createFloatBuffer(capacity * 4);
+			regions    = BufferUtils.createFloatBuffer(capacity * 4 * 4);
+			runFirst   = new int[capacity];
+			runCount   = new int[capacity];
+			runLayer   = new int[capacity];
+			runTexture = new Texture[capacity];
+		}
+	}
+
+	private static final int
+		SEQUENCE_BITS = 20,
+		TEXTURE_BITS  = 20;
+
+	private static final long
+		SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private static final int MAX_SPRITES = 1 << SEQUENCE_BITS;
+
+	private static SpriteShader shader = null;
+
+	// Only ever touched on the context's thread, grown there to fit whichever frame it is drawing
+	private Vao vao;
+	private int vaoCapacity;
+	private int positionAttrib, texCoordAttrib, rotationAttrib, regionAttrib;
+
+	private int capacity;
+
+	// Sprites queued since the last flush or submit
+	private int count;
+	private long[] keys;
+	private Texture[] textures;
+	private float[] x, y, width, height;
+	private float[] u0, v0, u1, v1;
+	private float[] rotation;
+
+	private Frame[] frames;
+	private RenderQueue.Command runCommand;
+	private Matrix4f matrix;
+
+	private Camera camera;
+	private float left, top, right, bottom;
+
+	private int drawCalls, verticesUploaded, culled;
+
+	public SpriteBatch() {
+		if (shader == null) {
+			shader = new SpriteShader();
+		}
+		allocate(256);
+		frames = new Frame[] { new Frame(), new Frame() };
+		runCommand = this::drawRun;
+		matrix = new Matrix4f();
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+
+		keys     = Arrays.copyOf(keys == null ? new long[0] : keys, capacity);
+		textures = Arrays.copyOf(textures == null ? new Texture[0] : textures, capacity);
+		x        = grow(x, capacity);
+		y        = grow(y, capacity);
+		width    = grow(width, capacity);
+		height   = grow(height, capacity);
+		u0       = grow(u0, capacity);
+		v0       = grow(v0, capacity);
+		u1       = grow(u1, capacity);
+		v1       = grow(v1, capacity);
+		rotation = grow(rotation, capacity);
+	}
+
+	private void allocateVao(int capacity) {
+		vaoCapacity = capacity;
+
+		int[] indices = new int[capacity * 6];
+		for (int i = 0; i < capacity; ++i) {
+			indices[i * 6    ] = i * 4;
+			indices[i * 6 + 1] = i * 4 + 1;
+			indices[i * 6 + 2] = i * 4 + 3;
+			indices[i * 6 + 3] = i * 4 + 1;
+			indices[i * 6 + 4] = i * 4 + 2;
+			indices[i * 6 + 5] = i * 4 + 3;
+		}
+		if (vao != null) {
+			vao.destroy();
+		}
+		vao = new Vao(indices);
+		positionAttrib = vao.addDynamicAttrib(3, 0);
+		texCoordAttrib = vao.addDynamicAttrib(2, 0);
+		rotationAttrib = vao.addDynamicAttrib(1, 0);
+		regionAttrib   = vao.addDynamicAttrib(4, 0);
+	}
+
+	private static float[] grow(float[] array, int capacity) {
+		return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+	}
+
+	// Starts a frame, sprites wholly outside the camera's view are dropped as they are drawn
+	public void begin(Camera camera) {
+		this.camera = camera;
+		left   = camera.getRenderX();
+		top    = camera.getRenderY();
+		right  = left + camera.getWidth();
+		bottom = top  + camera.getHeight();
+
+		count  = 0;
+		culled = 0;
+	}
+
+	public void draw(Texture texture, int layer, float x, float y, float width, float height, float rotation) {
+		draw(texture, layer, x, y, width, height, 0, 0, 1, 1, rotation);
+	}
+
+	public void draw(TextureAtlas.Region region, int layer, float x, float y, float width, float height, float rotation) {
+		draw(region.texture, layer, x, y, width, height, region.u0, region.v0, region.u1, region.v1, rotation);
+	}
+
+	// Queues a quad centred on (x, y), a negative width or height mirrors it. Rotation rolls the texture
+	// through the quad like the eyes on a turning ball, a full turn every 1. Layers must not be negative
+	public void draw(Texture texture, int layer, float x, float y, float width, float height, float u0, float v0, float u1, float v1, float rotation) {
+		float halfWidth  = Math.abs(width)  * 0.5f;
+		float halfHeight = Math.abs(height) * 0.5f;
+		if (x + halfWidth < left || x - halfWidth > right || y + halfHeight < top || y - halfHeight > bottom) {
+			++culled;
+			return;
+		}
+
+		if (count == capacity) {
+			// A frame this full is dropped rather than flushed, the batch may not be on the context's thread
+			if (capacity == MAX_SPRITES) {
+				++culled;
+				return;
+			}
+			allocate(capacity * 2);
+		}
+
+		rotation = (rotation % 1) * 2;
+		if (rotation > 1) {
+			rotation -= 2;
+		}
+
+		int i = count++;
+		keys[i]          = ((long) layer << (SEQUENCE_BITS + TEXTURE_BITS)) | ((long) texture.getId() << SEQUENCE_BITS) | i;
+		textures[i]      = texture;
+		this.x[i]        = x;
+		this.y[i]        = y;
+		this.width[i]    = width;
+		this.height[i]   = height;
+		this.u0[i]       = u0;
+		this.v0[i]       = v0;
+		this.u1[i]       = u1;
+		this.v1[i]       = v1;
+		this.rotation[i] = rotation;
+	}
+
+	// Draws everything queued straight away with a call per run of the same texture
+	public void flush() {
+		prepare(frames[0]);
+		camera.getMatrix(matrix);
+		for (int i = 0; i < frames[0].runs; ++i) {
+			drawRun(matrix, i << 1);
+		}
+	}
+
+	// Queues a draw per run of the same texture at the given render layer, sprite layers become depths
+	// within it. Vertices are kept with the queue's slot and uploaded by the first of its runs to draw
+	public void submit(RenderQueue queue, int layer) {
+		int slot = queue.getSlot();
+		Frame frame = frames[slot];
+		prepare(frame);
+		for (int i = 0; i < frame.runs; ++i) {
+			queue.submit(RenderQueue.key(layer, frame.runLayer[i], shader.getProgram(), frame.runTexture[i].getId(), 0), runCommand, i << 1 | slot);
+		}
+	}
+
+	// Sorts everything queued, fills the frame's vertices and splits them into runs
+	private void prepare(Frame frame) {
+		frame.runs     = 0;
+		frame.sprites  = count;
+		frame.uploaded = false;
+		if (count == 0) {
+			return;
+		}
+		frame.reserve(count);
+
+		// The sequence number in the low bits keeps the sort stable
+		Arrays.sort(keys, 0, count);
+
+		FloatBuffer positions = frame.positions;
+		FloatBuffer texCoords = frame.texCoords;
+		FloatBuffer rotations = frame.rotations;
+		FloatBuffer regions   = frame.regions;
+		positions.clear();
+		texCoords.clear();
+		rotations.clear();
+		regions.clear();
+		for (int k = 0; k < count; ++k) {
+			int i = (int) (keys[k] & SEQUENCE_MASK);
+
+			float x0 = x[i] - width[i]  * 0.5f;
+			float x1 = x[i] + width[i]  * 0.5f;
+			float y0 = y[i] - height[i] * 0.5f;
+			float y1 = y[i] + height[i] * 0.5f;
+
+			positions.put(x1).put(y0).put(0);
+			positions.put(x1).put(y1).put(0);
+			positions.put(x0).put(y1).put(0);
+			positions.put(x0).put(y0).put(0);
+
+			// Corners of the quad, the shader maps them into the sprite's region after rotating
+			texCoords.put(1).put(0);
+			texCoords.put(1).put(1);
+			texCoords.put(0).put(1);
+			texCoords.put(0).put(0);
+
+			rotations.put(rotation[i]).put(rotation[i]).put(rotation[i]).put(rotation[i]);
+
+			float regionWidth  = u1[i] - u0[i];
+			float regionHeight = v1[i] - v0[i];
+			for (int j = 0; j < 4; ++j) {
+				regions.put(u0[i]).put(v0[i]).put(regionWidth).put(regionHeight);
+			}
+		}
+		positions.flip();
+		texCoords.flip();
+		rotations.flip();
+		regions.flip();
+
+		// A run may span layers when they share a texture. Runs are keyed by the layer they start in,
+		// and a later run never starts in a lower layer, so the queue keeps them in order
+		int first = 0;
+		for (int k = 1; k <= count; ++k) {
+			if (k == count || texture(k) != texture(first)) {
+				frame.runFirst[frame.runs]   = first;
+				frame.runCount[frame.runs]   = k - first;
+				frame.runLayer[frame.runs]   = layer(first);
+				frame.runTexture[frame.runs] = textures[(int) (keys[first] & SEQUENCE_MASK)];
+				++frame.runs;
+				first = k;
+			}
+		}
+
+		for (int i = 0; i < count; ++i) {
+			textures[i] = null;
+		}
+		count = 0;
+	}
+
+	private void upload(Frame frame) {
+		if (vaoCapacity < frame.sprites) {
+			allocateVao(Math.max(frame.sprites, vaoCapacity * 2));
+		}
+		vao.updateAttrib(positionAttrib, frame.positions);
+		vao.updateAttrib(texCoordAttrib, frame.texCoords);
+		vao.updateAttrib(rotationAttrib, frame.rotations);
+		vao.updateAttrib(regionAttrib, frame.regions);
+		frame.uploaded = true;
+
+		drawCalls        = 0;
+		verticesUploaded = frame.sprites * 4;
+	}
+
+	// Argument is the run's index above the frame's slot
+	private void drawRun(Matrix4f view, int argument) {
+		Frame frame = frames[argument & 1];
+		int run = argument >>> 1;
+		if (!frame.uploaded) {
+			upload(frame);
+		}
+		shader.enable();
+		shader.setMVP(view);
+		frame.runTexture[run].bind();
+		vao.renderRange(frame.runFirst[run] * 6, frame.runCount[run] * 6);
+		++drawCalls;
+	}
+
+	private int texture(int sorted) {
+		return textures[(int) (keys[sorted] & SEQUENCE_MASK)].getId();
+	}
+
+	private int layer(int sorted) {
+		return (int) (keys[sorted] >>> (SEQUENCE_BITS + TEXTURE_BITS));
+	}
+
+	// Draws and vertices of the last frame to draw, sprites culled from the last frame to begin
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	public int getVerticesUploaded() {
+		return verticesUploaded;
+	}
+
+	public int getCulled() {
+		return culled;
+	}
+}
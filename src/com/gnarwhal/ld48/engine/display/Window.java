@@ -1,30 +1,27 @@
 package com.gnarwhal.ld48.engine.display;
 
+import com.gnarwhal.ld48.engine.input.Input;
+import com.gnarwhal.ld48.engine.input.InputEvents;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWGamepadState;
 import org.lwjgl.glfw.GLFWVidMode;
 
+import java.util.Arrays;
+
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL.createCapabilities;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
 
-public class Window {
+public class Window implements Input {
 	
 	public static int
 		SCREEN_WIDTH,
 		SCREEN_HEIGHT,
 		REFRESH_RATE;
 	
-	public static final int
-		BUTTON_RELEASED  = 0,
-		BUTTON_UNPRESSED = 1,
-		BUTTON_PRESSED   = 2,
-		BUTTON_HELD      = 3,
-		BUTTON_REPEAT    = 4;
-	
 	public static float SCALE;
 	
 	private long window;
@@ -33,9 +30,17 @@ public class Window {
 	
 	private int[] mouseButtons   = new int[GLFW_MOUSE_BUTTON_LAST + 1];
 	private int[] keys           = new int[GLFW_KEY_LAST + 1];
-	private int[] gamepadButtons = new int[GLFW_GAMEPAD_BUTTON_LAST];
+	private int[] gamepadButtons = new int[GLFW_GAMEPAD_BUTTON_LAST + 1];
 	private GLFWGamepadState gamepadState;
 	
+	// Keys and mouse buttons that changed since the last update and still have to age, so update
+	// only touches what changed. Mouse buttons are indexed after the keys
+	private int[] dirty = new int[16];
+	private int dirtyCount;
+	private boolean[] isDirty = new boolean[keys.length + mouseButtons.length];
+	
+	private InputEvents events = new InputEvents(256);
+	
 	public Window(String title, boolean vSync) {
 		init(0, 0, title, vSync, false, false, false);
 	}
@@ -51,8 +56,8 @@ public class Window {
 	public void init(int lwidth, int lheight, String title, boolean vSync, boolean resizable, boolean decorated, boolean maximized) {
 		glfwSetErrorCallback(GLFWErrorCallback.createPrint(System.err));
 		
-		for (int i = 0; i < mouseButtons.length; i++)
-			mouseButtons[i] = 0;
+		Arrays.fill(mouseButtons, BUTTON_UNPRESSED);
+		Arrays.fill(keys, BUTTON_UNPRESSED);
 		
 		if(!glfwInit()) {
 			System.err.println("GLFW failed to initialize!");
@@ -98,29 +103,19 @@ public class Window {
 		});
 		
 		glfwSetMouseButtonCallback(window, (long window, int button, int action, int mods) -> {
-			if (action == GLFW_RELEASE)
-				mouseButtons[button] = BUTTON_RELEASED;
-			if (action == GLFW_PRESS)
-				mouseButtons[button] = BUTTON_PRESSED;
-			if (action == GLFW_REPEAT)
-				mouseButtons[button] = BUTTON_REPEAT;
+			transition(InputEvents.DEVICE_MOUSE, button, action);
 		});
 		
 		glfwSetKeyCallback(window, (long window, int key, int scancode, int action, int mods) -> {
 			if (key != -1) {
-				if (action == GLFW_RELEASE)
-					keys[key] = BUTTON_RELEASED;
-				if (action == GLFW_PRESS)
-					keys[key] = BUTTON_PRESSED;
-				if (action == GLFW_REPEAT)
-					keys[key] = BUTTON_REPEAT;
+				transition(InputEvents.DEVICE_KEYBOARD, key, action);
 			}
 		});
 
 		activateClearColor();
 
-		glEnable(GL_BLEND);
-		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		GLState.setBlend(true);
+		GLState.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 		
 		glEnable(GL_MULTISAMPLE);
 
@@ -134,13 +129,44 @@ public class Window {
 		gamepadState = GLFWGamepadState.create();
 	}
 	
+	private void transition(int device, int code, int action) {
+		int state;
+		if (action == GLFW_RELEASE)
+			state = BUTTON_RELEASED;
+		else if (action == GLFW_PRESS)
+			state = BUTTON_PRESSED;
+		else
+			state = BUTTON_REPEAT;
+		
+		int index;
+		if (device == InputEvents.DEVICE_KEYBOARD) {
+			keys[code] = state;
+			index = code;
+		} else {
+			mouseButtons[code] = state;
+			index = keys.length + code;
+		}
+		if (!isDirty[index]) {
+			if (dirtyCount == dirty.length)
+				dirty = Arrays.copyOf(dirty, dirty.length * 2);
+			dirty[dirtyCount++] = index;
+			isDirty[index] = true;
+		}
+		
+		events.push(System.nanoTime(), device, code, state);
+	}
+	
 	public void update() {
-		for (int i = 0; i < mouseButtons.length; i++)
-			if (mouseButtons[i] == BUTTON_RELEASED || mouseButtons[i] == BUTTON_PRESSED)
-				++mouseButtons[i];
-		for (int i = 0; i < keys.length; i++)
-			if (keys[i] == BUTTON_RELEASED || keys[i] == BUTTON_PRESSED)
-				++keys[i];
+		// Pressed and released age into held and unpressed, everything else already has
+		for (int i = 0; i < dirtyCount; i++) {
+			int index = dirty[i];
+			int[] states = index < keys.length ? keys : mouseButtons;
+			int slot = index < keys.length ? index : index - keys.length;
+			if (states[slot] == BUTTON_RELEASED || states[slot] == BUTTON_PRESSED)
+				++states[slot];
+			isDirty[index] = false;
+		}
+		dirtyCount = 0;
 		if (glfwGetGamepadState(GLFW_JOYSTICK_1, gamepadState)) {
 			for (int i = 0; i < gamepadButtons.length; ++i) {
 				if (gamepadState.buttons(i) == GLFW_RELEASE) {
@@ -221,6 +247,11 @@ public class Window {
 		return gamepadButtons[button];
 	}
 	
+	// Every key and mouse button transition in arrival order, stamped when GLFW delivered it
+	public InputEvents getEvents() {
+		return events;
+	}
+	
 	public boolean wasResized() {
 		return resized;
 	}
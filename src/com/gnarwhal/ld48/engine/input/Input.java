@@ -0,0 +1,19 @@
+package com.gnarwhal.ld48.engine.input;
+
+public interface Input {
+
+	int
+		BUTTON_RELEASED  = 0,
+		BUTTON_UNPRESSED = 1,
+		BUTTON_PRESSED   = 2,
+		BUTTON_HELD      = 3,
+		BUTTON_REPEAT    = 4;
+
+	int keyPressed(int keyCode);
+
+	boolean joystick(int joystick);
+
+	float getJoystickAxis(int axis);
+
+	int controllerButtonPressed(int button);
+}
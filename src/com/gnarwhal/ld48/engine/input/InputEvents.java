@@ -0,0 +1,77 @@
+package com.gnarwhal.ld48.engine.input;
+
+import java.lang.invoke.VarHandle;
+
+// Fixed size ring of timestamped button transitions in the order they arrived. Every event gets the
+// next number in one ever increasing sequence, readers keep their own cursor into it and the oldest
+// events are overwritten once the ring wraps. One thread pushes, and since an event is only counted
+// once it is written, readers on other threads may read anything before head
+public class InputEvents {
+
+	public static final int
+		DEVICE_KEYBOARD = 0,
+		DEVICE_MOUSE    = 1;
+
+	private int mask;
+	private long[] time;
+	private int[] device;
+	private int[] code;
+	private int[] state;
+
+	private volatile long head;
+
+	// Capacity is rounded up to a power of two
+	public InputEvents(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		mask   = size - 1;
+		time   = new long[size];
+		device = new int[size];
+		code   = new int[size];
+		state  = new int[size];
+	}
+
+	public void push(long time, int device, int code, int state) {
+		int slot = (int) head & mask;
+		this.time[slot]   = time;
+		this.device[slot] = device;
+		this.code[slot]   = code;
+		this.state[slot]  = state;
+		head = head + 1;
+	}
+
+	// Sequence number the next event will be given
+	public long head() {
+		return head;
+	}
+
+	// Oldest sequence number still in the ring, a reader whose cursor is behind this has missed events
+	public long tail() {
+		return Math.max(0, head - time.length);
+	}
+
+	// Whether the event's slot may have been reused since, so a read of it taken before this call cannot
+	// be trusted. The slot is rewritten as soon as head reaches sequence + capacity, before head moves on
+	public boolean overwritten(long sequence) {
+		// Keeps the reads of the slot from being reordered after the read of head below
+		VarHandle.acquireFence();
+		return head - sequence >= time.length;
+	}
+
+	// System.nanoTime of when the event was delivered
+	public long time(long sequence) {
+		return time[(int) sequence & mask];
+	}
+
+	public int device(long sequence) {
+		return device[(int) sequence & mask];
+	}
+
+	public int code(long sequence) {
+		return code[(int) sequence & mask];
+	}
+
+	// One of the Input BUTTON_PRESSED, BUTTON_RELEASED or BUTTON_REPEAT states
+	public int state(long sequence) {
+		return state[(int) sequence & mask];
+	}
+}
@@ -0,0 +1,141 @@
+package com.gnarwhal.ld48.engine.input;
+
+import com.gnarwhal.ld48.engine.util.TripleBuffer;
+
+import java.util.Arrays;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+// Input for a thread other than the window's. GLFW only delivers input on the window's thread, which
+// pushes every key transition into the InputEvents ring as it arrives and publishes the gamepad once a
+// frame. The consuming thread calls update once a tick to take whatever arrived since the last one,
+// aging states the way Window does so it reports exactly what Window would at the same moment
+public class InputQueue implements Input {
+
+	private InputEvents events;
+	private long cursor;
+	private long dropped;
+
+	private int[] keys = new int[InputState.KEYS];
+	private int[] dirty = new int[16];
+	private int dirtyCount;
+	private boolean[] isDirty = new boolean[keys.length];
+
+	private TripleBuffer<InputState> gamepads;
+	private int[] buttons = new int[InputState.BUTTONS];
+	private float[] axes = new float[InputState.AXES];
+	private boolean gamepad;
+
+	public InputQueue(InputEvents events) {
+		this.events = events;
+		cursor = events.head();
+		Arrays.fill(keys, BUTTON_UNPRESSED);
+		Arrays.fill(buttons, BUTTON_UNPRESSED);
+		gamepads = new TripleBuffer<>(new InputState(), new InputState(), new InputState());
+	}
+
+	// Window's thread, once a frame after polling, hands over the gamepad as it is now
+	public void publish(Input window) {
+		InputState state = gamepads.back();
+		state.gamepad = window.joystick(GLFW_JOYSTICK_1);
+		for (int i = 0; i < InputState.BUTTONS; ++i) {
+			state.buttons[i] = window.controllerButtonPressed(i);
+		}
+		for (int i = 0; i < InputState.AXES; ++i) {
+			state.axes[i] = window.getJoystickAxis(i);
+		}
+		gamepads.publish();
+	}
+
+	// Consuming thread, once a tick before anything reads the input
+	public void update() {
+		// Pressed and released age into held and unpressed, everything else already has
+		for (int i = 0; i < dirtyCount; ++i) {
+			int key = dirty[i];
+			if (keys[key] == BUTTON_RELEASED || keys[key] == BUTTON_PRESSED) {
+				++keys[key];
+			}
+			isDirty[key] = false;
+		}
+		dirtyCount = 0;
+
+		// A tick long enough for the ring to wrap loses the oldest transitions
+		long tail = events.tail();
+		if (cursor < tail) {
+			dropped += tail - cursor;
+			cursor = tail;
+		}
+		long head = events.head();
+		while (cursor < head) {
+			int device = events.device(cursor);
+			int key    = events.code(cursor);
+			int state  = events.state(cursor);
+			// The window's thread can lap the ring while this tick is still reading it
+			if (events.overwritten(cursor)) {
+				long next = Math.max(events.tail(), cursor + 1);
+				dropped += next - cursor;
+				cursor = next;
+				continue;
+			}
+			++cursor;
+
+			if (device == InputEvents.DEVICE_KEYBOARD) {
+				keys[key] = state;
+				if (!isDirty[key]) {
+					if (dirtyCount == dirty.length) {
+						dirty = Arrays.copyOf(dirty, dirty.length * 2);
+					}
+					dirty[dirtyCount++] = key;
+					isDirty[key] = true;
+				}
+			}
+		}
+
+		// The gamepad is polled rather than evented, so its buttons age from whether they are down in
+		// the latest frame the window published
+		if (gamepads.acquire()) {
+			InputState state = gamepads.front();
+			gamepad = state.gamepad;
+			System.arraycopy(state.axes, 0, axes, 0, axes.length);
+		}
+		if (gamepad) {
+			int[] latest = gamepads.front().buttons;
+			for (int i = 0; i < buttons.length; ++i) {
+				if (latest[i] < BUTTON_PRESSED) {
+					if (buttons[i] == BUTTON_RELEASED) {
+						buttons[i] = BUTTON_UNPRESSED;
+					} else if (buttons[i] != BUTTON_UNPRESSED) {
+						buttons[i] = BUTTON_RELEASED;
+					}
+				} else {
+					if (buttons[i] == BUTTON_PRESSED) {
+						buttons[i] = BUTTON_HELD;
+					} else if (buttons[i] != BUTTON_HELD) {
+						buttons[i] = BUTTON_PRESSED;
+					}
+				}
+			}
+		}
+	}
+
+	public int keyPressed(int keyCode) {
+		return keys[keyCode];
+	}
+
+	public boolean joystick(int joystick) {
+		return gamepad && joystick == GLFW_JOYSTICK_1;
+	}
+
+	public float getJoystickAxis(int axis) {
+		return axes[axis];
+	}
+
+	public int controllerButtonPressed(int button) {
+		return buttons[button];
+	}
+
+	// Transitions overwritten in the ring before a tick got to them
+	public long getDropped() {
+		return dropped;
+	}
+}
@@ -0,0 +1,169 @@
+package com.gnarwhal.ld48.engine.input;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+	Records what another input reports every tick into a compact log, big endian:
+
+		int  magic ('LD4I')
+		int  version
+		int  tick rate
+		long seed
+
+	followed by records, each starting with an opcode byte:
+
+		IDLE  varint n           the next n ticks changed nothing
+		FRAME varint n, n deltas the next tick changed n values
+		END   long ticks, long state hash
+
+	A delta is a kind byte and varint code, then a state byte for keys and buttons, a float for
+	axes and nothing for the gamepad, which just toggles whether one is connected.
+*/
+public class InputRecorder implements Input {
+
+	public static final int
+		MAGIC   = 0x4C443449,
+		VERSION = 1;
+
+	public static final int
+		OP_IDLE  = 0,
+		OP_FRAME = 1,
+		OP_END   = 2;
+
+	public static final int
+		DELTA_KEY     = 0,
+		DELTA_BUTTON  = 1,
+		DELTA_AXIS    = 2,
+		DELTA_GAMEPAD = 3;
+
+	private Input source;
+	private DataOutputStream output;
+
+	private InputState state, previous;
+	private long ticks;
+	private long idle;
+
+	// Deltas of the tick being written: kind, code and the value's bits
+	private int[] deltas;
+	private int delta_count;
+
+	public InputRecorder(Input source, String path, int tickRate, long seed) throws IOException {
+		this.source = source;
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeInt(tickRate);
+		output.writeLong(seed);
+
+		state    = new InputState();
+		previous = new InputState();
+		deltas   = new int[3 * (InputState.KEYS + InputState.BUTTONS + InputState.AXES + 1)];
+	}
+
+	// Captures the source once it has been updated for the tick, the game should read from the recorder
+	public void update() {
+		InputState swap = previous;
+		previous = state;
+		state = swap;
+		state.capture(source);
+
+		delta_count = 0;
+		for (int i = 0; i < InputState.KEYS; ++i) {
+			if (state.keys[i] != previous.keys[i]) {
+				delta(DELTA_KEY, i, state.keys[i]);
+			}
+		}
+		for (int i = 0; i < InputState.BUTTONS; ++i) {
+			if (state.buttons[i] != previous.buttons[i]) {
+				delta(DELTA_BUTTON, i, state.buttons[i]);
+			}
+		}
+		for (int i = 0; i < InputState.AXES; ++i) {
+			if (Float.floatToRawIntBits(state.axes[i]) != Float.floatToRawIntBits(previous.axes[i])) {
+				delta(DELTA_AXIS, i, Float.floatToRawIntBits(state.axes[i]));
+			}
+		}
+		if (state.gamepad != previous.gamepad) {
+			delta(DELTA_GAMEPAD, 0, 0);
+		}
+
+		try {
+			if (delta_count == 0) {
+				++idle;
+			} else {
+				flushIdle();
+				output.writeByte(OP_FRAME);
+				writeVarint(output, delta_count);
+				for (int i = 0; i < delta_count; ++i) {
+					int kind  = deltas[i * 3];
+					int value = deltas[i * 3 + 2];
+					output.writeByte(kind);
+					writeVarint(output, deltas[i * 3 + 1]);
+					if (kind == DELTA_AXIS) {
+						output.writeInt(value);
+					} else if (kind != DELTA_GAMEPAD) {
+						output.writeByte(value);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write input recording", e);
+		}
+		++ticks;
+	}
+
+	private void delta(int kind, int code, int value) {
+		deltas[delta_count * 3    ] = kind;
+		deltas[delta_count * 3 + 1] = code;
+		deltas[delta_count * 3 + 2] = value;
+		++delta_count;
+	}
+
+	private void flushIdle() throws IOException {
+		if (idle > 0) {
+			output.writeByte(OP_IDLE);
+			writeVarint(output, idle);
+			idle = 0;
+		}
+	}
+
+	// Ends the log with the simulation's state hash, which a replay has to arrive at as well
+	public void close(long stateHash) throws IOException {
+		flushIdle();
+		output.writeByte(OP_END);
+		output.writeLong(ticks);
+		output.writeLong(stateHash);
+		output.close();
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	static void writeVarint(DataOutputStream output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+
+	public int keyPressed(int keyCode) {
+		return state.keyPressed(keyCode);
+	}
+
+	public boolean joystick(int joystick) {
+		return state.joystick(joystick);
+	}
+
+	public float getJoystickAxis(int axis) {
+		return state.getJoystickAxis(axis);
+	}
+
+	public int controllerButtonPressed(int button) {
+		return state.controllerButtonPressed(button);
+	}
+}
@@ -0,0 +1,151 @@
+package com.gnarwhal.ld48.engine.input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static com.gnarwhal.ld48.engine.input.InputRecorder.*;
+
+// Plays back a log written by InputRecorder one tick per update, with no window needed
+public class InputReplay implements Input {
+
+	private DataInputStream input;
+
+	private int tickRate;
+	private long seed;
+
+	private InputState state;
+	private long idle;
+
+	private boolean ended;
+	private long recordedTicks;
+	private long recordedHash;
+
+	public InputReplay(String path) throws IOException {
+		input = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		if (input.readInt() != MAGIC) {
+			input.close();
+			throw new IOException("Not an input recording: " + path);
+		}
+		if (input.readInt() != VERSION) {
+			input.close();
+			throw new IOException("Unsupported input recording version: " + path);
+		}
+		tickRate = input.readInt();
+		seed     = input.readLong();
+
+		state = new InputState();
+		next();
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	// Applies the next recorded tick, the replayed counterpart of InputRecorder.update
+	public void update() {
+		if (idle > 0) {
+			--idle;
+			return;
+		}
+		if (ended) {
+			return;
+		}
+
+		try {
+			int count = (int) readVarint(input);
+			for (int i = 0; i < count; ++i) {
+				int kind = input.readUnsignedByte();
+				int code = (int) readVarint(input);
+				if (kind == DELTA_KEY) {
+					state.keys[code] = input.readUnsignedByte();
+				} else if (kind == DELTA_BUTTON) {
+					state.buttons[code] = input.readUnsignedByte();
+				} else if (kind == DELTA_AXIS) {
+					state.axes[code] = Float.intBitsToFloat(input.readInt());
+				} else if (kind == DELTA_GAMEPAD) {
+					state.gamepad = !state.gamepad;
+				} else {
+					throw new IOException("Corrupt input recording");
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read input recording", e);
+		}
+		next();
+	}
+
+	// Reads up to the body of the next frame, leaving idle holding how many unchanged ticks come first
+	private void next() {
+		try {
+			int op = input.readUnsignedByte();
+			if (op == OP_IDLE) {
+				idle = readVarint(input);
+				int frame = input.readUnsignedByte();
+				if (frame == OP_END) {
+					end();
+				} else if (frame != OP_FRAME) {
+					throw new IOException("Corrupt input recording");
+				}
+			} else if (op == OP_END) {
+				end();
+			} else if (op != OP_FRAME) {
+				throw new IOException("Corrupt input recording");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read input recording", e);
+		}
+	}
+
+	private void end() throws IOException {
+		ended = true;
+		recordedTicks = input.readLong();
+		recordedHash  = input.readLong();
+		input.close();
+	}
+
+	// True once every recorded tick has been played
+	public boolean finished() {
+		return ended && idle == 0;
+	}
+
+	public long getRecordedTicks() {
+		return recordedTicks;
+	}
+
+	public long getRecordedHash() {
+		return recordedHash;
+	}
+
+	static long readVarint(DataInputStream input) throws IOException {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = input.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	public int keyPressed(int keyCode) {
+		return state.keyPressed(keyCode);
+	}
+
+	public boolean joystick(int joystick) {
+		return state.joystick(joystick);
+	}
+
+	public float getJoystickAxis(int axis) {
+		return state.getJoystickAxis(axis);
+	}
+
+	public int controllerButtonPressed(int button) {
+		return state.controllerButtonPressed(button);
+	}
+}
@@ -0,0 +1,54 @@
+package com.gnarwhal.ld48.engine.input;
+
+import java.util.Arrays;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+// Everything an Input can report for a single tick, as plain arrays
+public class InputState implements Input {
+
+	public static final int
+		KEYS    = GLFW_KEY_LAST + 1,
+		BUTTONS = GLFW_GAMEPAD_BUTTON_LAST + 1,
+		AXES    = GLFW_GAMEPAD_AXIS_LAST + 1;
+
+	public int[] keys      = new int[KEYS];
+	public int[] buttons   = new int[BUTTONS];
+	public float[] axes    = new float[AXES];
+	public boolean gamepad;
+
+	public InputState() {
+		Arrays.fill(keys, BUTTON_UNPRESSED);
+		Arrays.fill(buttons, BUTTON_UNPRESSED);
+	}
+
+	// Reads the whole current state of another input
+	public void capture(Input input) {
+		for (int i = 0; i < KEYS; ++i) {
+			keys[i] = input.keyPressed(i);
+		}
+		gamepad = input.joystick(GLFW_JOYSTICK_1);
+		for (int i = 0; i < BUTTONS; ++i) {
+			buttons[i] = input.controllerButtonPressed(i);
+		}
+		for (int i = 0; i < AXES; ++i) {
+			axes[i] = input.getJoystickAxis(i);
+		}
+	}
+
+	public int keyPressed(int keyCode) {
+		return keys[keyCode];
+	}
+
+	public boolean joystick(int joystick) {
+		return gamepad && joystick == GLFW_JOYSTICK_1;
+	}
+
+	public float getJoystickAxis(int axis) {
+		return axes[axis];
+	}
+
+	public int controllerButtonPressed(int button) {
+		return buttons[button];
+	}
+}
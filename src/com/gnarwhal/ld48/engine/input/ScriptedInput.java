@@ -0,0 +1,114 @@
+package com.gnarwhal.ld48.engine.input;
+
+import java.util.Arrays;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+public class ScriptedInput implements Input {
+
+	private static final int
+		EVENT_KEY    = 0,
+		EVENT_BUTTON = 1,
+		EVENT_AXIS   = 2;
+
+	// Events sorted by tick: tick, type, code, and 1 / 0 for down / up or the axis value's bits
+	private int[] events;
+	private int event_count;
+	private int next_event;
+
+	private int tick;
+
+	private int[] keys           = new int[GLFW_KEY_LAST + 1];
+	private int[] gamepadButtons = new int[GLFW_GAMEPAD_BUTTON_LAST + 1];
+	private float[] axes         = new float[GLFW_GAMEPAD_AXIS_LAST + 1];
+	private boolean gamepad;
+
+	public ScriptedInput() {
+		events = new int[4 * 64];
+		Arrays.fill(keys, BUTTON_UNPRESSED);
+		Arrays.fill(gamepadButtons, BUTTON_UNPRESSED);
+	}
+
+	public ScriptedInput press(int tick, int key) {
+		return add(tick, EVENT_KEY, key, 1);
+	}
+
+	public ScriptedInput release(int tick, int key) {
+		return add(tick, EVENT_KEY, key, 0);
+	}
+
+	public ScriptedInput pressButton(int tick, int button) {
+		gamepad = true;
+		return add(tick, EVENT_BUTTON, button, 1);
+	}
+
+	public ScriptedInput releaseButton(int tick, int button) {
+		gamepad = true;
+		return add(tick, EVENT_BUTTON, button, 0);
+	}
+
+	public ScriptedInput setAxis(int tick, int axis, float value) {
+		gamepad = true;
+		return add(tick, EVENT_AXIS, axis, Float.floatToRawIntBits(value));
+	}
+
+	private ScriptedInput add(int tick, int type, int code, int value) {
+		if (event_count > 0 && tick < events[(event_count - 1) * 4]) {
+			throw new IllegalArgumentException("Scripted input must be added in tick order");
+		}
+		if ((event_count + 1) * 4 > events.length) {
+			events = Arrays.copyOf(events, events.length * 2);
+		}
+		events[event_count * 4    ] = tick;
+		events[event_count * 4 + 1] = type;
+		events[event_count * 4 + 2] = code;
+		events[event_count * 4 + 3] = value;
+		++event_count;
+		return this;
+	}
+
+	// Steps the script forward a tick, the scripted counterpart of Window.update
+	public void update() {
+		for (int i = 0; i < keys.length; ++i)
+			if (keys[i] == BUTTON_RELEASED || keys[i] == BUTTON_PRESSED)
+				++keys[i];
+		for (int i = 0; i < gamepadButtons.length; ++i)
+			if (gamepadButtons[i] == BUTTON_RELEASED || gamepadButtons[i] == BUTTON_PRESSED)
+				++gamepadButtons[i];
+
+		while (next_event < event_count && events[next_event * 4] <= tick) {
+			int type  = events[next_event * 4 + 1];
+			int code  = events[next_event * 4 + 2];
+			int value = events[next_event * 4 + 3];
+			if (type == EVENT_KEY) {
+				keys[code] = value != 0 ? BUTTON_PRESSED : BUTTON_RELEASED;
+			} else if (type == EVENT_BUTTON) {
+				gamepadButtons[code] = value != 0 ? BUTTON_PRESSED : BUTTON_RELEASED;
+			} else {
+				axes[code] = Float.intBitsToFloat(value);
+			}
+			++next_event;
+		}
+		++tick;
+	}
+
+	public boolean finished() {
+		return next_event == event_count;
+	}
+
+	public int keyPressed(int keyCode) {
+		return keys[keyCode];
+	}
+
+	public boolean joystick(int joystick) {
+		return gamepad && joystick == GLFW_JOYSTICK_1;
+	}
+
+	public float getJoystickAxis(int axis) {
+		return axes[axis];
+	}
+
+	public int controllerButtonPressed(int button) {
+		return gamepadButtons[button];
+	}
+}
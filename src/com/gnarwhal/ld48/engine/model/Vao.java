@@ -1,9 +1,15 @@
 package com.gnarwhal.ld48.engine.model;
 
+import com.gnarwhal.ld48.engine.display.GLState;
+
+import java.nio.FloatBuffer;
+
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
 
 public class Vao {
 
@@ -15,7 +21,7 @@ public class Vao {
 	
 	public Vao(float[] vertices, int[] indices) {
 		vao = glGenVertexArrays();
-		glBindVertexArray(vao);
+		GLState.bindVertexArray(vao);
 		addAttrib(vertices, 3);
 		ibo = glGenBuffers();
 		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
@@ -23,22 +29,60 @@ public class Vao {
 		count = indices.length;
 	}
 	
+	// Index only, every attribute is added afterwards through addDynamicAttrib
+	public Vao(int[] indices) {
+		vao = glGenVertexArrays();
+		GLState.bindVertexArray(vao);
+		ibo = glGenBuffers();
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+		count = indices.length;
+	}
+	
 	public void addAttrib(float[] data, int size) {
+		GLState.bindVertexArray(vao);
 		int vbo = glGenBuffers();
 		vbos[numAttribs] = vbo;
 		glBindBuffer(GL_ARRAY_BUFFER, vbo);
 		glBufferData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
 		glVertexAttribPointer(numAttribs, size, GL_FLOAT, false, 0, 0);
+		// Enabled arrays are part of the vertex array's own state, so this only needs doing once
+		glEnableVertexAttribArray(numAttribs);
 		++numAttribs;
 	}
 	
+	// Adds an attribute whose data is streamed in later through updateAttrib, a divisor of 1 makes it per instance
+	public int addDynamicAttrib(int size, int divisor) {
+		GLState.bindVertexArray(vao);
+		int vbo = glGenBuffers();
+		vbos[numAttribs] = vbo;
+		glBindBuffer(GL_ARRAY_BUFFER, vbo);
+		glBufferData(GL_ARRAY_BUFFER, 0, GL_STREAM_DRAW);
+		glVertexAttribPointer(numAttribs, size, GL_FLOAT, false, 0, 0);
+		glVertexAttribDivisor(numAttribs, divisor);
+		glEnableVertexAttribArray(numAttribs);
+		return numAttribs++;
+	}
+	
+	public void updateAttrib(int attrib, FloatBuffer data) {
+		glBindBuffer(GL_ARRAY_BUFFER, vbos[attrib]);
+		glBufferData(GL_ARRAY_BUFFER, data, GL_STREAM_DRAW);
+	}
+	
 	public void render() {
-		glBindVertexArray(vao);
-		for(int i = 0; i < numAttribs; ++i)
-			glEnableVertexAttribArray(i);
+		GLState.bindVertexArray(vao);
 		glDrawElements(GL_TRIANGLES, count, GL_UNSIGNED_INT, 0);
-		for(int i = 0; i < numAttribs; ++i)
-			glDisableVertexAttribArray(i);
+	}
+	
+	// Draws count indices starting from the first'th
+	public void renderRange(int first, int count) {
+		GLState.bindVertexArray(vao);
+		glDrawElements(GL_TRIANGLES, count, GL_UNSIGNED_INT, first * 4L);
+	}
+	
+	public void renderInstanced(int instances) {
+		GLState.bindVertexArray(vao);
+		glDrawElementsInstanced(GL_TRIANGLES, count, GL_UNSIGNED_INT, 0, instances);
 	}
 	
 	public void destroy() {
@@ -46,5 +90,6 @@ public class Vao {
 			glDeleteBuffers(vbo);
 		glDeleteBuffers(ibo);
 		glDeleteVertexArrays(vao);
+		GLState.deletedVertexArray(vao);
 	}
 }
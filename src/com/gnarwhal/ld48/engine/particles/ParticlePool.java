@@ -0,0 +1,157 @@
+package com.gnarwhal.ld48.engine.particles;
+
+import com.gnarwhal.ld48.engine.util.StateHash;
+
+import java.util.Random;
+
+// Fixed capacity particles kept as parallel arrays, the live ones always packed into [0, count)
+public class ParticlePool {
+
+	public float[] x, y;
+	public float[] velocityX, velocityY;
+	public float[] size;
+	public float[] clock;
+	public float[] lifetime;
+
+	// Particles ease from the start size to the end size over their lifetime
+	private float startSize, endSize;
+
+	private int count;
+
+	public ParticlePool(int capacity, float startSize, float endSize) {
+		this.startSize = startSize;
+		this.endSize   = endSize;
+
+		x         = new float[capacity];
+		y         = new float[capacity];
+		velocityX = new float[capacity];
+		velocityY = new float[capacity];
+		size      = new float[capacity];
+		clock     = new float[capacity];
+		lifetime  = new float[capacity];
+	}
+
+	// Returns the new particle's index, or -1 if the pool is full and the particle was dropped
+	public int spawn(float x, float y, float velocityX, float velocityY, float size, float lifetime) {
+		if (count == this.x.length) {
+			return -1;
+		}
+		int i = count++;
+		this.x[i]         = x;
+		this.y[i]         = y;
+		this.velocityX[i] = velocityX;
+		this.velocityY[i] = velocityY;
+		this.size[i]      = size;
+		this.clock[i]     = 0;
+		this.lifetime[i]  = lifetime;
+		return i;
+	}
+
+	// Ages every particle, kills the expired ones and moves the rest in a straight line
+	public void update(float dtime) {
+		integrate(0, count, dtime);
+		compact();
+	}
+
+	// Ages and moves the particles in [from, to). Only ever touches those indices, so disjoint ranges
+	// can be integrated on different threads at once
+	public void integrate(int from, int to, float dtime) {
+		for (int i = from; i < to; ++i) {
+			float age = clock[i] + dtime;
+			clock[i] = age;
+			if (age < lifetime[i]) {
+				size[i] = startSize + (endSize - startSize) * (age / lifetime[i]);
+				x[i] += velocityX[i] * dtime;
+				y[i] += velocityY[i] * dtime;
+			}
+		}
+	}
+
+	// Removes every particle integrate aged past its lifetime. Always walks in index order, so the
+	// surviving particles end up in the same order however the integration was split up
+	public void compact() {
+		int i = 0;
+		while (i < count) {
+			if (clock[i] >= lifetime[i]) {
+				remove(i);
+			} else {
+				++i;
+			}
+		}
+	}
+
+	// Moves the last particle into the hole, so the order of particles is not kept
+	public void remove(int index) {
+		int last = --count;
+		x[index]         = x[last];
+		y[index]         = y[last];
+		velocityX[index] = velocityX[last];
+		velocityY[index] = velocityY[last];
+		size[index]      = size[last];
+		clock[index]     = clock[last];
+		lifetime[index]  = lifetime[last];
+	}
+
+	// Folds every live particle into the hash, in pool order
+	public long hash(long hash) {
+		hash = StateHash.mix(hash, count);
+		for (int i = 0; i < count; ++i) {
+			hash = StateHash.mix(hash, x[i]);
+			hash = StateHash.mix(hash, y[i]);
+			hash = StateHash.mix(hash, velocityX[i]);
+			hash = StateHash.mix(hash, velocityY[i]);
+			hash = StateHash.mix(hash, size[i]);
+			hash = StateHash.mix(hash, clock[i]);
+			hash = StateHash.mix(hash, lifetime[i]);
+		}
+		return hash;
+	}
+
+	// Makes this pool an exact copy of another of the same capacity
+	public void copy(ParticlePool source) {
+		startSize = source.startSize;
+		endSize   = source.endSize;
+		count     = source.count;
+		System.arraycopy(source.x,         0, x,         0, count);
+		System.arraycopy(source.y,         0, y,         0, count);
+		System.arraycopy(source.velocityX, 0, velocityX, 0, count);
+		System.arraycopy(source.velocityY, 0, velocityY, 0, count);
+		System.arraycopy(source.size,      0, size,      0, count);
+		System.arraycopy(source.clock,     0, clock,     0, count);
+		System.arraycopy(source.lifetime,  0, lifetime,  0, count);
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public int capacity() {
+		return x.length;
+	}
+
+	// Measures steady state updates with the pool kept full: ParticlePool [particles] [seconds]
+	public static void main(String[] args) {
+		int    particles = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		double seconds   = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+
+		final float DTIME = 1 / 60.0f;
+		ParticlePool pool = new ParticlePool(particles, 28, 16);
+		Random random = new Random(0);
+
+		long updates = 0, start = System.nanoTime(), end = start + (long) (seconds * 1e9);
+		long now = start;
+		while (now < end) {
+			while (pool.count() < pool.capacity()) {
+				pool.spawn(random.nextFloat() * 1920, random.nextFloat() * 1080, random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100, 28, 0.5f + random.nextFloat() * 0.5f);
+			}
+			updates += pool.count();
+			pool.update(DTIME);
+			now = System.nanoTime();
+		}
+		System.out.printf("%d particles: %.1f million particle updates/s%n", particles, updates / ((now - start) / 1e9) / 1e6);
+	}
+}
@@ -0,0 +1,166 @@
+package com.gnarwhal.ld48.engine.particles;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Integrates every registered emitter's particles together. Past PARALLEL_THRESHOLD live particles the
+// work is split into fork join tasks over contiguous index ranges, compaction always stays on the
+// calling thread so the result is the same however many workers there are
+public class ParticleSystem {
+
+	public static final int PARALLEL_THRESHOLD = 8192;
+
+	// Smallest range worth handing to another worker
+	private static final int MIN_RANGE = 2048;
+
+	private class Integrate extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int from, to;
+
+		private Integrate(int from, int to) {
+			this.from = from;
+			this.to   = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= range) {
+				integrate(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Integrate(from, middle), new Integrate(middle, to));
+			}
+		}
+	}
+
+	private ForkJoinPool workers;
+	private ArrayList<ParticlePool> pools;
+
+	// Where each pool's particles start in one flat index space over every pool
+	private int[] offsets;
+	private int range;
+	private float dtime;
+
+	public ParticleSystem() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	public ParticleSystem(ForkJoinPool workers) {
+		this.workers = workers;
+		pools   = new ArrayList<>();
+		offsets = new int[8];
+	}
+
+	public void add(ParticlePool pool) {
+		pools.add(pool);
+		if (offsets.length < pools.size() + 1) {
+			offsets = new int[offsets.length * 2];
+		}
+	}
+
+	public void remove(ParticlePool pool) {
+		pools.remove(pool);
+	}
+
+	public int count() {
+		int count = 0;
+		for (int i = 0; i < pools.size(); ++i) {
+			count += pools.get(i).count();
+		}
+		return count;
+	}
+
+	public void update(float dtime) {
+		this.dtime = dtime;
+
+		int total = 0;
+		for (int i = 0; i < pools.size(); ++i) {
+			offsets[i] = total;
+			total += pools.get(i).count();
+		}
+		offsets[pools.size()] = total;
+
+		if (total < PARALLEL_THRESHOLD || workers.getParallelism() == 1) {
+			integrate(0, total);
+		} else {
+			// A few ranges per worker so one that finishes early can steal from the rest
+			range = Math.max(MIN_RANGE, total / (workers.getParallelism() * 4));
+			workers.invoke(new Integrate(0, total));
+		}
+
+		for (int i = 0; i < pools.size(); ++i) {
+			pools.get(i).compact();
+		}
+	}
+
+	// Integrates a range of the flat index space, which may span several pools
+	private void integrate(int from, int to) {
+		if (from >= to) {
+			return;
+		}
+		int pool = 0;
+		while (offsets[pool + 1] <= from) {
+			++pool;
+		}
+		while (from < to) {
+			int end = Math.min(to, offsets[pool + 1]);
+			pools.get(pool).integrate(from - offsets[pool], end - offsets[pool], dtime);
+			from = end;
+			++pool;
+		}
+	}
+
+	// Times the same emitters on 1, 2, 4 and 8 workers and checks they all finish in the same state:
+	// ParticleSystem [emitters] [particles per emitter] [steps]
+	public static void main(String[] args) {
+		int emitters  = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int particles = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		int steps     = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		final float DTIME = 1 / 60.0f;
+		double baseline = 0;
+		for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+			ForkJoinPool workers = new ForkJoinPool(parallelism);
+			ParticleSystem system = new ParticleSystem(workers);
+			ParticlePool[] pools = new ParticlePool[emitters];
+			for (int i = 0; i < emitters; ++i) {
+				pools[i] = new ParticlePool(particles, 28, 16);
+				system.add(pools[i]);
+			}
+
+			Random random = new Random(0);
+			long updates = 0, elapsed = 0;
+			for (int step = 0; step < steps; ++step) {
+				// Refill on the calling thread like an emitter would, only the update is timed
+				for (int i = 0; i < emitters; ++i) {
+					ParticlePool pool = pools[i];
+					while (pool.count() < pool.capacity()) {
+						pool.spawn(random.nextFloat() * 1920, random.nextFloat() * 1080, random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100, 28, 0.5f + random.nextFloat() * 0.5f);
+					}
+				}
+				updates += system.count();
+				long start = System.nanoTime();
+				system.update(DTIME);
+				elapsed += System.nanoTime() - start;
+			}
+			workers.shutdown();
+
+			long hash = 0;
+			for (int i = 0; i < emitters; ++i) {
+				for (int j = 0; j < pools[i].count(); ++j) {
+					hash = hash * 31 + Float.floatToIntBits(pools[i].x[j]);
+					hash = hash * 31 + Float.floatToIntBits(pools[i].y[j]);
+					hash = hash * 31 + Float.floatToIntBits(pools[i].size[j]);
+				}
+			}
+			double rate = updates / (elapsed / 1e9) / 1e6;
+			if (parallelism == 1) {
+				baseline = rate;
+			}
+			System.out.printf("%d workers: %.1f million particle updates/s (%.2fx), state %016x%n", parallelism, rate, rate / baseline, hash);
+		}
+	}
+}
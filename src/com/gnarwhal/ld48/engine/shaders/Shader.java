@@ -1,74 +1,346 @@
 package com.gnarwhal.ld48.engine.shaders;
 
+import com.gnarwhal.ld48.engine.display.GLState;
 import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBParallelShaderCompile;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.opengl.KHRParallelShaderCompile;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
 
+import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.*;
 
+/*
+	Programs are only issued when a shader is made, their status is checked the first time one is
+	enabled or when finishAll is called, so drivers that compile in the background get to work on
+	every program at once. Linked programs are saved under CACHE_DIRECTORY named after a hash of their
+	sources and the driver, and later launches load that binary instead of compiling. A binary the
+	driver rejects, after an update say, is thrown away and the sources compiled as normal.
+*/
 public abstract class Shader {
 
+	public static final String CACHE_DIRECTORY = "cache/shaders";
+
+	private static final ArrayList<Shader> pending = new ArrayList<>();
+
+	// Whether the context can hand back and take program binaries, checked with the first shader
+	private static Boolean binaries = null;
+	private static String driver;
+
+	private static int programs, cached;
+	private static long blockingTime;
+
 	protected int program;
 	protected int mvpLoc;
-	
+
+	private String vertPath, fragPath;
+	private int vert, frag;
+	private String key;
+	private boolean fromCache, finished;
+	private HashMap<String, Integer> uniforms;
+
+	// Last value uploaded to each uniform location, four floats a location, so repeats can be skipped
+	private float[] uniformValues;
+	private boolean[] uniformSet;
+	private Matrix4f mvp;
+
 	protected Shader(String vertPath, String fragPath) {
+		long start = System.nanoTime();
+		if (binaries == null) {
+			detect();
+		}
+
+		this.vertPath = vertPath;
+		this.fragPath = fragPath;
+		String vertSource = read(vertPath);
+		String fragSource = read(fragPath);
+
 		program = glCreateProgram();
-		
-		int vert = loadShader(vertPath, GL_VERTEX_SHADER);
-		int frag = loadShader(fragPath, GL_FRAGMENT_SHADER);
-		
-		glAttachShader(program, vert);
-		glAttachShader(program, frag);
-		
-		glLinkProgram(program);
-		
-		glDetachShader(program, vert);
-		glDetachShader(program, frag);
-		
-		glDeleteShader(vert);
-		glDeleteShader(frag);
-
-		mvpLoc = glGetUniformLocation(program, "mvp");
-	}
-	
-	private int loadShader(String path, int type) {
-		StringBuilder file = new StringBuilder();
+		if (binaries) {
+			key = key(vertSource, fragSource);
+			fromCache = loadBinary();
+		}
+		if (!fromCache) {
+			vert = issueShader(vertSource, GL_VERTEX_SHADER);
+			frag = issueShader(fragSource, GL_FRAGMENT_SHADER);
+
+			glAttachShader(program, vert);
+			glAttachShader(program, frag);
+			if (binaries) {
+				glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+			}
+			glLinkProgram(program);
+		}
+
+		++programs;
+		pending.add(this);
+		blockingTime += System.nanoTime() - start;
+	}
+
+	private static void detect() {
+		GLCapabilities caps = GL.getCapabilities();
+		binaries = (caps.OpenGL41 || caps.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+		driver = glGetString(GL_VENDOR) + "\n" + glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION);
+
+		// Let the driver use as many compiler threads as it likes
+		if (caps.GL_KHR_parallel_shader_compile) {
+			KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR(0xFFFFFFFF);
+		} else if (caps.GL_ARB_parallel_shader_compile) {
+			ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB(0xFFFFFFFF);
+		}
+	}
+
+	private static String read(String path) {
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(new File(path)));
-			String line;
-			while((line = reader.readLine()) != null)
-				file.append(line + '\n');
-			reader.close();
+			return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
 		} catch (IOException e) {
+			throw new RuntimeException("Failed to read shader: " + path, e);
+		}
+	}
+
+	private static String key(String vertSource, String fragSource) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		digest.update(driver.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(vertSource.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(fragSource.getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder key = new StringBuilder();
+		byte[] hash = digest.digest();
+		for (int i = 0; i < 16; ++i) {
+			key.append(String.format("%02x", hash[i]));
+		}
+		return key.toString();
+	}
+
+	// Binary files are the int format in native order followed by the driver's bytes. They are only
+	// ever read back on the machine that wrote them, and BufferUtils buffers are native order
+	private boolean loadBinary() {
+		File file = new File(CACHE_DIRECTORY, key + ".bin");
+		if (!file.exists()) {
+			return false;
+		}
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			ByteBuffer binary = BufferUtils.createByteBuffer(bytes.length);
+			binary.put(bytes).flip();
+			int format = binary.getInt();
+			glProgramBinary(program, format, binary);
+			if (glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE) {
+				return true;
+			}
+		} catch (IOException | RuntimeException e) {
 			e.printStackTrace();
 		}
-		String source = file.toString();
+		file.delete();
+		return false;
+	}
+
+	private void saveBinary() {
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0) {
+			return;
+		}
+		IntBuffer format = BufferUtils.createIntBuffer(1);
+		ByteBuffer binary = BufferUtils.createByteBuffer(length);
+		glGetProgramBinary(program, null, format, binary);
+
+		byte[] bytes = new byte[4 + length];
+		ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()).putInt(format.get(0)).put(binary);
+
+		// Written aside and moved into place, so a crash never leaves half a binary behind
+		File directory = new File(CACHE_DIRECTORY);
+		File file = new File(directory, key + ".bin");
+		File temporary = new File(directory, key + ".tmp");
+		try {
+			if (!directory.exists() && !directory.mkdirs()) {
+				throw new IOException("Failed to create shader cache directory: " + directory);
+			}
+			Files.write(temporary.toPath(), bytes);
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// Only costs the next launch a compile
+			e.printStackTrace();
+		}
+	}
+
+	// Compiles without asking how it went, finish does that once everything has been issued
+	private int issueShader(String source, int type) {
 		int shader = glCreateShader(type);
 		glShaderSource(shader, source);
 		glCompileShader(shader);
-		if(glGetShaderi(shader, GL_COMPILE_STATUS) != 1)
-			throw new RuntimeException("Failed to compile shader: " + path + "! " + glGetShaderInfoLog(shader));
 		return shader;
 	}
-	
+
+	// Checks the link went through and looks up every uniform, blocking until the driver is done
+	private void finish() {
+		long start = System.nanoTime();
+		if (!fromCache) {
+			if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+				if (glGetShaderi(vert, GL_COMPILE_STATUS) != GL_TRUE) {
+					throw new RuntimeException("Failed to compile shader: " + vertPath + "! " + glGetShaderInfoLog(vert));
+				}
+				if (glGetShaderi(frag, GL_COMPILE_STATUS) != GL_TRUE) {
+					throw new RuntimeException("Failed to compile shader: " + fragPath + "! " + glGetShaderInfoLog(frag));
+				}
+				throw new RuntimeException("Failed to link shader: " + vertPath + ", " + fragPath + "! " + glGetProgramInfoLog(program));
+			}
+
+			glDetachShader(program, vert);
+			glDetachShader(program, frag);
+			glDeleteShader(vert);
+			glDeleteShader(frag);
+
+			if (binaries) {
+				saveBinary();
+			}
+		} else {
+			++cached;
+		}
+
+		uniforms = new HashMap<>();
+		IntBuffer size = BufferUtils.createIntBuffer(1);
+		IntBuffer type = BufferUtils.createIntBuffer(1);
+		int count = glGetProgrami(program, GL_ACTIVE_UNIFORMS);
+		int maxLocation = -1;
+		for (int i = 0; i < count; ++i) {
+			String name = glGetActiveUniform(program, i, size, type);
+			int location = glGetUniformLocation(program, name);
+			uniforms.put(name, location);
+			// Arrays are reported as their first element
+			if (name.endsWith("[0]")) {
+				uniforms.put(name.substring(0, name.length() - 3), location);
+			}
+			maxLocation = Math.max(maxLocation, location);
+		}
+		uniformValues = new float[(maxLocation + 1) * 4];
+		uniformSet    = new boolean[maxLocation + 1];
+		mvpLoc = getUniformLocation("mvp");
+		getUniforms();
+
+		finished = true;
+		pending.remove(this);
+		blockingTime += System.nanoTime() - start;
+	}
+
+	// Finishes every shader made so far, call once everything at startup has been made
+	public static void finishAll() {
+		// Finishing takes a shader off the list
+		while (!pending.isEmpty()) {
+			pending.get(0).finish();
+		}
+	}
+
+	// Whether finishing would not block, always true without parallel compile support
+	public boolean isReady() {
+		if (finished || fromCache) {
+			return true;
+		}
+		GLCapabilities caps = GL.getCapabilities();
+		if (caps.GL_KHR_parallel_shader_compile || caps.GL_ARB_parallel_shader_compile) {
+			return glGetProgrami(program, KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR) == GL_TRUE;
+		}
+		return true;
+	}
+
+	// -1 for uniforms that do not exist or were optimized out, like glGetUniformLocation
+	protected int getUniformLocation(String name) {
+		Integer location = uniforms.get(name);
+		return location == null ? -1 : location;
+	}
+
+	// Called once the program is linked
 	protected abstract void getUniforms();
-	
+
+	// Programs made, how many came from the cache, and the milliseconds spent blocked making them
+	public static String report() {
+		return String.format("shaders: %d programs, %d from cache, %.1f ms", programs, cached, blockingTime / 1e6);
+	}
+
+	// Uniforms keep their values while other programs are in use, so only changes are uploaded
 	public void setMVP(Matrix4f matrix) {
-		glUniformMatrix4fv(mvpLoc, false, matrix.get(new float[16]));
+		if (mvp != null && mvp.equals(matrix)) {
+			GLState.countAvoided();
+			return;
+		}
+		if (mvp == null) {
+			mvp = new Matrix4f();
+		}
+		mvp.set(matrix);
+		GLState.uniformMatrix4(mvpLoc, matrix);
+	}
+
+	protected void setUniform(int location, float x) {
+		if (unchanged(location, x, 0, 0, 0)) {
+			return;
+		}
+		glUniform1f(location, x);
+	}
+
+	protected void setUniform(int location, float x, float y, float z, float w) {
+		if (unchanged(location, x, y, z, w)) {
+			return;
+		}
+		glUniform4f(location, x, y, z, w);
 	}
-	
+
+	// Records the value and says whether the location already held it
+	private boolean unchanged(int location, float x, float y, float z, float w) {
+		if (location < 0) {
+			return true;
+		}
+		int i = location * 4;
+		if (uniformSet[location] && uniformValues[i] == x && uniformValues[i + 1] == y && uniformValues[i + 2] == z && uniformValues[i + 3] == w) {
+			GLState.countAvoided();
+			return true;
+		}
+		uniformSet[location] = true;
+		uniformValues[i    ] = x;
+		uniformValues[i + 1] = y;
+		uniformValues[i + 2] = z;
+		uniformValues[i + 3] = w;
+		return false;
+	}
+
+	public int getProgram() {
+		return program;
+	}
+
 	public void enable() {
-		glUseProgram(program);
+		if (!finished) {
+			finish();
+		}
+		GLState.useProgram(program);
 	}
-	
+
 	public void disable() {
-		glUseProgram(0);
+		GLState.useProgram(0);
 	}
-	
+
 	public void destroy() {
+		pending.remove(this);
 		glDeleteProgram(program);
+		GLState.deletedProgram(program);
 	}
 }
@@ -0,0 +1,11 @@
+package com.gnarwhal.ld48.engine.shaders;
+
+public class SpriteShader extends Shader {
+
+	public SpriteShader() {
+		super("res/shaders/sprite/vert.gls", "res/shaders/sprite/frag.gls");
+	}
+
+	@Override
+	protected void getUniforms() {}
+}
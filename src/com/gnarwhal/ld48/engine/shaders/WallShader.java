@@ -0,0 +1,28 @@
+package com.gnarwhal.ld48.engine.shaders;
+
+public class WallShader extends Shader {
+
+	private int color_loc;
+	private int tile_dims_loc;
+	private int offset_loc;
+
+	public WallShader() {
+		super("res/shaders/wall/vert.gls", "res/shaders/wall/frag.gls");
+	}
+
+	@Override
+	protected void getUniforms() {
+		color_loc     = getUniformLocation("input_color");
+		tile_dims_loc = getUniformLocation("tile_dims");
+		offset_loc    = getUniformLocation("offset");
+	}
+
+	public void setColor(float r, float g, float b, float a) {
+		setUniform(color_loc, r, g, b, a);
+	}
+
+	public void setTileDims(float dims, float offset) {
+		setUniform(tile_dims_loc, dims);
+		setUniform(offset_loc, offset);
+	}
+}
@@ -1,16 +1,11 @@
 package com.gnarwhal.ld48.engine.texture;
 
-import org.lwjgl.BufferUtils;
+import com.gnarwhal.ld48.engine.assets.AssetLoader;
+import com.gnarwhal.ld48.engine.display.GLState;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
 
 public class Texture {
 
@@ -21,38 +16,64 @@ public class Texture {
 	}
 
 	public Texture(String name, int wrap) {
-		BufferedImage bi = null;
+		TextureData data = null;
 		try {
-			bi = ImageIO.read(new File(name));
+			data = TextureData.decode(name);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if (bi != null) {
-			width = bi.getWidth();
-			height = bi.getHeight();
-			int[] pixels = bi.getRGB(0, 0, width, height, null, 0, width);
-			ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * 4);
+		if (data != null) {
+			upload(data, wrap);
+		}
+	}
+	
+	// Uploads packed ARGB pixels, row by row from the top
+	public Texture(int[] pixels, int width, int height, int wrap) {
+		upload(TextureData.fromARGB(pixels, width, height), wrap);
+	}
+
+	// Only the upload happens here, data decoded on another thread is fine
+	public Texture(TextureData data, int wrap) {
+		upload(data, wrap);
+	}
+	
+	private void upload(TextureData data, int wrap) {
+		this.width = data.width;
+		this.height = data.height;
 
-			for (int i = 0; i < height; i++) {
-				for (int j = 0; j < width; j++) {
-					int pixel = pixels[i * width + j];
-					buffer.put((byte)((pixel >> 16) & 0xFF)); // Red
-					buffer.put((byte)((pixel >>  8) & 0xFF)); // Green
-					buffer.put((byte)((pixel      ) & 0xFF)); // Blue
-					buffer.put((byte)((pixel >> 24) & 0xFF)); // Alpha
-				}
+		id = glGenTextures();
+		bind();
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, wrap);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, wrap);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, data.pixels);
+		unbind();
+	}
+
+	// Decodes on an AssetManager worker and uploads with the given wrap mode
+	public static AssetLoader<TextureData, Texture> loader(int wrap) {
+		return new AssetLoader<TextureData, Texture>() {
+			@Override
+			public TextureData decode(String path) throws IOException {
+				return TextureData.decode(path);
 			}
-			buffer.flip();
 
-			id = glGenTextures();
-			bind();
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, wrap);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, wrap);
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
-			unbind();
+			@Override
+			public Texture upload(TextureData data) {
+				return new Texture(data, wrap);
+			}
+		};
+	}
+
+	// Decodes every image in parallel on the common pool and uploads them in order on this thread
+	public static Texture[] loadAll(String[] names, int wrap) {
+		TextureData[] data = TextureData.decodeAll(names);
+		Texture[] textures = new Texture[names.length];
+		for (int i = 0; i < names.length; ++i) {
+			textures[i] = data[i] == null ? new Texture(0, 0, 0) : new Texture(data[i], wrap);
 		}
+		return textures;
 	}
 	
 	public Texture(int id, int width, int height) {
@@ -61,6 +82,10 @@ public class Texture {
 		this.height = height;
 	}
 	
+	public int getId() {
+		return id;
+	}
+	
 	public int getWidth() {
 		return width;
 	}
@@ -74,15 +99,15 @@ public class Texture {
 	}
 
 	public void bind(int activeTexture) {
-		glActiveTexture(GL_TEXTURE0 + activeTexture);
-		glBindTexture(GL_TEXTURE_2D, id);
+		GLState.bindTexture(activeTexture, id);
 	}
 	
 	public void unbind() {
-		glBindTexture(GL_TEXTURE_2D, 0);
+		GLState.bindTexture(0, 0);
 	}
 	
 	public void destroy() {
 		glDeleteTextures(id);
+		GLState.deletedTexture(id);
 	}
 }
@@ -0,0 +1,442 @@
+package com.gnarwhal.ld48.engine.texture;
+
+import com.gnarwhal.ld48.engine.assets.AssetLoader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.lwjgl.opengl.GL11.GL_REPEAT;
+
+/*
+	Packs every image in a directory onto as few pages as possible, shelf by shelf from the tallest
+	down, each image extruded into a padding border so neighbours never bleed into each other.
+	Packed pages are cached under CACHE_DIRECTORY, named after a hash of the images and packing
+	settings, so later launches skip decoding and packing entirely. Cache files are little endian:
+
+		int magic ('LDAT')
+		int version
+		int page count
+		    per page:   int width, int height
+		int region count
+		    per region: int name length, name bytes (UTF-8), int page, int x, int y, int width, int height
+		    per page:   int pixels[width * height] (ARGB)
+*/
+public class TextureAtlas {
+
+	public static class Region {
+		public Texture texture;
+		public int page;
+		public int x, y, width, height;
+		public float u0, v0, u1, v1;
+	}
+
+	public static final String CACHE_DIRECTORY = "cache/atlas";
+
+	// Builds atlases with the default page size and padding for an AssetManager
+	public static final AssetLoader<TextureAtlas, TextureAtlas> LOADER = new AssetLoader<TextureAtlas, TextureAtlas>() {
+		@Override
+		public TextureAtlas decode(String path) throws IOException {
+			return build(path, DEFAULT_PAGE_SIZE, DEFAULT_PADDING);
+		}
+
+		@Override
+		public TextureAtlas upload(TextureAtlas atlas) {
+			return atlas.upload();
+		}
+	};
+
+	public static final int
+		DEFAULT_PAGE_SIZE = 2048,
+		DEFAULT_PADDING   = 2;
+
+	private static final int
+		MAGIC   = 0x5441444C,
+		VERSION = 1;
+
+	private int[] pageWidths, pageHeights;
+	private int[][] pages;
+	private HashMap<String, Region> regions;
+	private Texture[] textures;
+	private boolean cached;
+
+	private TextureAtlas() {
+		regions = new HashMap<>();
+	}
+
+	public static TextureAtlas load(String directory) {
+		return load(directory, DEFAULT_PAGE_SIZE, DEFAULT_PADDING);
+	}
+
+	// Builds or reads back the atlas and uploads its pages
+	public static TextureAtlas load(String directory, int pageSize, int padding) {
+		TextureAtlas atlas;
+		try {
+			atlas = build(directory, pageSize, padding);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to load texture atlas: " + directory, e);
+		}
+		return atlas.upload();
+	}
+
+	// CPU side only, finds the atlas in the cache or packs it and writes it there
+	public static TextureAtlas build(String directory, int pageSize, int padding) throws IOException {
+		File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".png"));
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		Arrays.sort(files);
+
+		File cache = new File(CACHE_DIRECTORY, key(files, pageSize, padding) + ".atlas");
+		if (cache.exists()) {
+			try {
+				TextureAtlas atlas = read(cache);
+				atlas.cached = true;
+				return atlas;
+			} catch (IOException e) {
+				// Fall through and rebuild over the bad copy
+				e.printStackTrace();
+			}
+		}
+
+		TextureAtlas atlas = pack(files, pageSize, padding);
+		try {
+			atlas.write(cache);
+		} catch (IOException e) {
+			// Only costs the next launch a repack
+			e.printStackTrace();
+		}
+		return atlas;
+	}
+
+	private static String key(File[] files, int pageSize, int padding) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		digest.update(ByteBuffer.allocate(12).putInt(VERSION).putInt(pageSize).putInt(padding).array());
+		for (File file : files) {
+			digest.update(file.getName().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(Files.readAllBytes(file.toPath()));
+		}
+
+		StringBuilder key = new StringBuilder();
+		byte[] hash = digest.digest();
+		for (int i = 0; i < 16; ++i) {
+			key.append(String.format("%02x", hash[i]));
+		}
+		return key.toString();
+	}
+
+	private static TextureAtlas pack(File[] files, int pageSize, int padding) throws IOException {
+		int count = files.length;
+		String[] names = new String[count];
+		BufferedImage[] images = new BufferedImage[count];
+		Integer[] order = new Integer[count];
+		// Decoding is the slow part, so every image is read at once on the common pool
+		ArrayList<CompletableFuture<BufferedImage>> reads = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			File file = files[i];
+			reads.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return ImageIO.read(file);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+		}
+		for (int i = 0; i < count; ++i) {
+			names[i] = files[i].getName().substring(0, files[i].getName().length() - 4);
+			try {
+				images[i] = reads.get(i).join();
+			} catch (CompletionException e) {
+				throw new IOException("Failed to read image: " + files[i], e.getCause());
+			}
+			if (images[i] == null) {
+				throw new IOException("Unreadable image: " + files[i]);
+			}
+			if (images[i].getWidth() + padding * 2 > pageSize || images[i].getHeight() + padding * 2 > pageSize) {
+				throw new IOException("Image does not fit on an atlas page: " + files[i]);
+			}
+			order[i] = i;
+		}
+		// Tallest first keeps shelves tight, ties broken by name so packing is repeatable
+		Arrays.sort(order, (a, b) -> images[a].getHeight() != images[b].getHeight()
+			? images[b].getHeight() - images[a].getHeight()
+			: names[a].compareTo(names[b]));
+
+		TextureAtlas atlas = new TextureAtlas();
+		ArrayList<int[]> extents = new ArrayList<>();
+		int shelfX = 0, shelfY = 0, shelfHeight = 0;
+		int usedWidth = 0;
+		for (int i : order) {
+			int width  = images[i].getWidth()  + padding * 2;
+			int height = images[i].getHeight() + padding * 2;
+			if (shelfX + width > pageSize) {
+				shelfY += shelfHeight;
+				shelfX = 0;
+				shelfHeight = 0;
+			}
+			if (extents.isEmpty() || shelfY + height > pageSize) {
+				if (!extents.isEmpty()) {
+					extents.set(extents.size() - 1, new int[] { usedWidth, shelfY + shelfHeight });
+				}
+				extents.add(null);
+				shelfX = 0;
+				shelfY = 0;
+				shelfHeight = 0;
+				usedWidth = 0;
+			}
+
+			Region region = new Region();
+			region.page   = extents.size() - 1;
+			region.x      = shelfX + padding;
+			region.y      = shelfY + padding;
+			region.width  = images[i].getWidth();
+			region.height = images[i].getHeight();
+			atlas.regions.put(names[i], region);
+
+			shelfX += width;
+			shelfHeight = Math.max(shelfHeight, height);
+			usedWidth = Math.max(usedWidth, shelfX);
+		}
+		if (!extents.isEmpty()) {
+			extents.set(extents.size() - 1, new int[] { usedWidth, shelfY + shelfHeight });
+		}
+
+		int pageCount = extents.size();
+		atlas.pageWidths  = new int[pageCount];
+		atlas.pageHeights = new int[pageCount];
+		atlas.pages       = new int[pageCount][];
+		for (int i = 0; i < pageCount; ++i) {
+			atlas.pageWidths[i]  = extents.get(i)[0];
+			atlas.pageHeights[i] = extents.get(i)[1];
+			atlas.pages[i] = new int[atlas.pageWidths[i] * atlas.pageHeights[i]];
+		}
+
+		for (int i = 0; i < count; ++i) {
+			Region region = atlas.regions.get(names[i]);
+			int[] pixels = images[i].getRGB(0, 0, region.width, region.height, null, 0, region.width);
+			atlas.blit(region, pixels, padding);
+		}
+		atlas.computeUVs();
+		return atlas;
+	}
+
+	// Copies the image in and smears its outermost pixels out across the padding
+	private void blit(Region region, int[] pixels, int padding) {
+		int[] page  = pages[region.page];
+		int   width = pageWidths[region.page];
+		for (int y = -padding; y < region.height + padding; ++y) {
+			int source_y = Math.max(0, Math.min(y, region.height - 1));
+			for (int x = -padding; x < region.width + padding; ++x) {
+				int source_x = Math.max(0, Math.min(x, region.width - 1));
+				page[(region.y + y) * width + region.x + x] = pixels[source_y * region.width + source_x];
+			}
+		}
+	}
+
+	private void computeUVs() {
+		for (Region region : regions.values()) {
+			float width  = pageWidths[region.page];
+			float height = pageHeights[region.page];
+			region.u0 =  region.x                  / width;
+			region.v0 =  region.y                  / height;
+			region.u1 = (region.x + region.width)  / width;
+			region.v1 = (region.y + region.height) / height;
+		}
+	}
+
+	private void write(File file) throws IOException {
+		int size = 12 + pages.length * 8 + 4;
+		byte[][] names = new byte[regions.size()][];
+		int n = 0;
+		for (String name : regions.keySet()) {
+			names[n] = name.getBytes(StandardCharsets.UTF_8);
+			size += 4 + names[n].length + 20;
+			++n;
+		}
+		for (int[] page : pages) {
+			size += page.length * 4;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(pages.length);
+		for (int i = 0; i < pages.length; ++i) {
+			buffer.putInt(pageWidths[i]);
+			buffer.putInt(pageHeights[i]);
+		}
+		buffer.putInt(regions.size());
+		n = 0;
+		for (Region region : regions.values()) {
+			buffer.putInt(names[n].length);
+			buffer.put(names[n]);
+			buffer.putInt(region.page);
+			buffer.putInt(region.x);
+			buffer.putInt(region.y);
+			buffer.putInt(region.width);
+			buffer.putInt(region.height);
+			++n;
+		}
+		for (int[] page : pages) {
+			buffer.asIntBuffer().put(page);
+			buffer.position(buffer.position() + page.length * 4);
+		}
+		buffer.flip();
+
+		// Written aside and moved into place, so a crash never leaves half an atlas behind
+		File directory = file.getParentFile();
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Failed to create atlas cache directory: " + directory);
+		}
+		File temporary = new File(directory, file.getName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static TextureAtlas read(File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Not a texture atlas: " + file);
+			}
+
+			TextureAtlas atlas = new TextureAtlas();
+			int pageCount = buffer.getInt();
+			atlas.pageWidths  = new int[pageCount];
+			atlas.pageHeights = new int[pageCount];
+			atlas.pages       = new int[pageCount][];
+			for (int i = 0; i < pageCount; ++i) {
+				atlas.pageWidths[i]  = buffer.getInt();
+				atlas.pageHeights[i] = buffer.getInt();
+			}
+
+			int regionCount = buffer.getInt();
+			for (int i = 0; i < regionCount; ++i) {
+				byte[] name = new byte[buffer.getInt()];
+				buffer.get(name);
+				Region region = new Region();
+				region.page   = buffer.getInt();
+				region.x      = buffer.getInt();
+				region.y      = buffer.getInt();
+				region.width  = buffer.getInt();
+				region.height = buffer.getInt();
+				atlas.regions.put(new String(name, StandardCharsets.UTF_8), region);
+			}
+
+			for (int i = 0; i < pageCount; ++i) {
+				atlas.pages[i] = new int[atlas.pageWidths[i] * atlas.pageHeights[i]];
+				buffer.asIntBuffer().get(atlas.pages[i]);
+				buffer.position(buffer.position() + atlas.pages[i].length * 4);
+			}
+			atlas.computeUVs();
+			return atlas;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt texture atlas: " + file, e);
+		}
+	}
+
+	// Pages built by build, needs the context thread. Sprites scroll their texture inside their own
+	// region, so pages repeat rather than clamp
+	public TextureAtlas upload() {
+		textures = new Texture[pages.length];
+		for (int i = 0; i < pages.length; ++i) {
+			textures[i] = new Texture(pages[i], pageWidths[i], pageHeights[i], GL_REPEAT);
+			pages[i] = null;
+		}
+		for (Region region : regions.values()) {
+			region.texture = textures[region.page];
+		}
+		return this;
+	}
+
+	// Named after the image's file without its extension
+	public Region get(String name) {
+		Region region = regions.get(name);
+		if (region == null) {
+			throw new RuntimeException("No image named " + name + " in texture atlas");
+		}
+		return region;
+	}
+
+	public int getPageCount() {
+		return pageWidths.length;
+	}
+
+	public int getPageWidth(int page) {
+		return pageWidths[page];
+	}
+
+	public int getPageHeight(int page) {
+		return pageHeights[page];
+	}
+
+	// Whether this atlas came out of the cache rather than being packed
+	public boolean isCached() {
+		return cached;
+	}
+
+	public void destroy() {
+		if (textures != null) {
+			for (Texture texture : textures) {
+				texture.destroy();
+			}
+		}
+	}
+
+	// Packs a directory without touching GL and reports how long a cold and a cached build take:
+	// TextureAtlas [directory] [page size] [padding]
+	public static void main(String[] args) throws IOException {
+		String directory = args.length > 0 ? args[0] : "res/img/player";
+		int    pageSize  = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		int    padding   = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+		File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".png"));
+		Arrays.sort(files);
+		new File(CACHE_DIRECTORY, key(files, pageSize, padding) + ".atlas").delete();
+
+		long start = System.nanoTime();
+		TextureAtlas atlas = build(directory, pageSize, padding);
+		long packed = System.nanoTime();
+		TextureAtlas cached = build(directory, pageSize, padding);
+		long read = System.nanoTime();
+
+		System.out.printf("Packed %d images onto %d pages in %.1f ms, read back from the cache in %.1f ms%n",
+			atlas.regions.size(), atlas.getPageCount(), (packed - start) / 1e6, (read - packed) / 1e6);
+		for (int i = 0; i < atlas.getPageCount(); ++i) {
+			System.out.printf("  page %d: %dx%d%n", i, atlas.getPageWidth(i), atlas.getPageHeight(i));
+		}
+		for (java.util.Map.Entry<String, Region> entry : atlas.regions.entrySet()) {
+			Region region = entry.getValue();
+			Region copy = cached.get(entry.getKey());
+			boolean same = copy.page == region.page && copy.x == region.x && copy.y == region.y
+				&& Arrays.equals(atlas.pages[region.page], cached.pages[copy.page]);
+			System.out.printf("  %-20s page %d at (%d, %d) %dx%d%s%n", entry.getKey(), region.page, region.x, region.y, region.width, region.height, same ? "" : " MISMATCH");
+		}
+	}
+}
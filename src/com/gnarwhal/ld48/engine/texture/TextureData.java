@@ -0,0 +1,189 @@
+package com.gnarwhal.ld48.engine.texture;
+
+import org.lwjgl.BufferUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+// Decoded pixels ready for glTexImage2D, tightly packed RGBA bytes row by row from the top. Decoding
+// touches no GL so it can run on any thread, only the upload has to happen on the context's thread
+public class TextureData {
+
+	public final int width, height;
+	public final ByteBuffer pixels;
+
+	private TextureData(int width, int height, ByteBuffer pixels) {
+		this.width  = width;
+		this.height = height;
+		this.pixels = pixels;
+	}
+
+	public static TextureData decode(String path) throws IOException {
+		BufferedImage image = ImageIO.read(new File(path));
+		if (image == null) {
+			throw new IOException("Unreadable image: " + path);
+		}
+		return fromImage(image);
+	}
+
+	public static TextureData fromImage(BufferedImage image) {
+		int width  = image.getWidth();
+		int height = image.getHeight();
+		ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * 4);
+		// Read as little endian ints the RGBA bytes are ABGR, which is what each conversion below produces
+		IntBuffer rgba = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+		// PNGs with alpha decode to A B G R bytes, read big endian those are already the ints we want
+		if (image.getType() == BufferedImage.TYPE_4BYTE_ABGR && image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+			byte[] abgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			if (abgr.length == width * height * 4) {
+				rgba.put(ByteBuffer.wrap(abgr).asIntBuffer());
+				return new TextureData(width, height, buffer.order(ByteOrder.nativeOrder()));
+			}
+		}
+
+		int[] argb;
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getDataBuffer() instanceof DataBufferInt
+			&& ((DataBufferInt) image.getRaster().getDataBuffer()).getData().length == width * height) {
+			argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		} else {
+			// Palettes, greyscale and anything without alpha go through Java2D's colour conversion
+			argb = image.getRGB(0, 0, width, height, null, 0, width);
+		}
+		put(rgba, argb);
+		return new TextureData(width, height, buffer.order(ByteOrder.nativeOrder()));
+	}
+
+	// Packed ARGB pixels, row by row from the top
+	public static TextureData fromARGB(int[] argb, int width, int height) {
+		ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * 4);
+		put(buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), argb);
+		return new TextureData(width, height, buffer.order(ByteOrder.nativeOrder()));
+	}
+
+	// Swaps red and blue, which turns ARGB into the ABGR ints that little endian RGBA bytes read as
+	private static void put(IntBuffer rgba, int[] argb) {
+		int[] row = new int[Math.min(argb.length, 4096)];
+		for (int start = 0; start < argb.length; start += row.length) {
+			int length = Math.min(row.length, argb.length - start);
+			for (int i = 0; i < length; ++i) {
+				int pixel = argb[start + i];
+				row[i] = (pixel & 0xFF00FF00) | ((pixel >> 16) & 0xFF) | ((pixel & 0xFF) << 16);
+			}
+			rgba.put(row, 0, length);
+		}
+	}
+
+	public static CompletableFuture<TextureData> decodeAsync(String path) {
+		return decodeAsync(path, ForkJoinPool.commonPool());
+	}
+
+	public static CompletableFuture<TextureData> decodeAsync(String path, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return decode(path);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to decode texture: " + path, e);
+			}
+		}, executor);
+	}
+
+	// Decodes every image at once, a failed image leaves a null in its place
+	public static TextureData[] decodeAll(String[] paths) {
+		return decodeAll(paths, ForkJoinPool.commonPool());
+	}
+
+	public static TextureData[] decodeAll(String[] paths, Executor executor) {
+		ArrayList<CompletableFuture<TextureData>> futures = new ArrayList<>(paths.length);
+		for (int i = 0; i < paths.length; ++i) {
+			futures.add(decodeAsync(paths[i], executor));
+		}
+		TextureData[] data = new TextureData[paths.length];
+		for (int i = 0; i < paths.length; ++i) {
+			try {
+				data[i] = futures.get(i).join();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+		return data;
+	}
+
+	// Times decoding the same set of images the way Texture used to, in bulk, and in bulk on every core:
+	// TextureData [copies] [directory]
+	public static void main(String[] args) throws IOException {
+		int    copies    = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		String directory = args.length > 1 ? args[1] : "res/img/player";
+
+		File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".png"));
+		java.util.Arrays.sort(files);
+		String[] paths = new String[files.length * copies];
+		for (int i = 0; i < paths.length; ++i) {
+			paths[i] = files[i % files.length].getPath();
+		}
+
+		// Warm ImageIO and the JIT before anything is timed
+		for (int i = 0; i < 3; ++i) {
+			for (File file : files) {
+				legacy(file.getPath());
+				decode(file.getPath());
+			}
+		}
+
+		long start = System.nanoTime();
+		long legacyHash = 0;
+		for (String path : paths) {
+			legacyHash = legacyHash * 31 + legacy(path).hashCode();
+		}
+		long legacy = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long bulkHash = 0;
+		for (String path : paths) {
+			bulkHash = bulkHash * 31 + decode(path).pixels.hashCode();
+		}
+		long bulk = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		long parallelHash = 0;
+		for (TextureData data : decodeAll(paths)) {
+			parallelHash = parallelHash * 31 + data.pixels.hashCode();
+		}
+		long parallel = System.nanoTime() - start;
+
+		System.out.printf("%d images%n", paths.length);
+		System.out.printf("  per byte:         %7.1f ms%n", legacy / 1e6);
+		System.out.printf("  bulk:             %7.1f ms (%.2fx)%n", bulk / 1e6, (double) legacy / bulk);
+		System.out.printf("  bulk, %2d workers: %7.1f ms (%.2fx)%n", ForkJoinPool.commonPool().getParallelism(), parallel / 1e6, (double) legacy / parallel);
+		System.out.println(legacyHash == bulkHash && bulkHash == parallelHash ? "  pixels match" : "  PIXELS DIFFER");
+	}
+
+	// What Texture(String, int) did before
+	private static ByteBuffer legacy(String path) throws IOException {
+		BufferedImage bi = ImageIO.read(new File(path));
+		int[] pixels = bi.getRGB(0, 0, bi.getWidth(), bi.getHeight(), null, 0, bi.getWidth());
+		ByteBuffer buffer = BufferUtils.createByteBuffer(bi.getWidth() * bi.getHeight() * 4);
+		for (int i = 0; i < bi.getHeight(); i++) {
+			for (int j = 0; j < bi.getWidth(); j++) {
+				int pixel = pixels[i * bi.getWidth() + j];
+				buffer.put((byte)((pixel >> 16) & 0xFF));
+				buffer.put((byte)((pixel >>  8) & 0xFF));
+				buffer.put((byte)((pixel      ) & 0xFF));
+				buffer.put((byte)((pixel >> 24) & 0xFF));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
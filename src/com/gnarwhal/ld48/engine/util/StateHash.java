@@ -0,0 +1,26 @@
+package com.gnarwhal.ld48.engine.util;
+
+// FNV-1a style folding of simulation state into one 64 bit value, so two runs can be compared exactly
+public class StateHash {
+
+	public static final long SEED = 0xCBF29CE484222325L;
+
+	private static final long PRIME = 0x100000001B3L;
+
+	public static long mix(long hash, int value) {
+		return (hash ^ value) * PRIME;
+	}
+
+	public static long mix(long hash, long value) {
+		return mix(mix(hash, (int) value), (int) (value >>> 32));
+	}
+
+	// Hashes the exact bits, so even a last place difference shows up
+	public static long mix(long hash, float value) {
+		return mix(hash, Float.floatToRawIntBits(value));
+	}
+
+	public static long mix(long hash, boolean value) {
+		return mix(hash, value ? 1 : 0);
+	}
+}
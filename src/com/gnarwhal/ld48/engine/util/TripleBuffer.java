@@ -0,0 +1,56 @@
+package com.gnarwhal.ld48.engine.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands the newest of a stream of values from one writing thread to one reading thread without either
+// ever waiting. The writer fills the back buffer and publishes it, which swaps it with the middle one,
+// and the reader acquires by swapping the middle buffer with its front one. Neither touches the other's
+// buffer, and values the reader never got round to are simply overwritten. The buffers are reused, so
+// anything in one the writer does not refill is whatever it held three publishes ago
+public class TripleBuffer<T> {
+
+	// The middle buffer's index, with FRESH set while it holds a publish the reader has not acquired
+	private static final int
+		INDEX = 0b011,
+		FRESH = 0b100;
+
+	private ArrayList<T> buffers;
+	private AtomicInteger middle;
+	private int back, front;
+
+	public TripleBuffer(T first, T second, T third) {
+		buffers = new ArrayList<>(3);
+		buffers.add(first);
+		buffers.add(second);
+		buffers.add(third);
+		back   = 0;
+		middle = new AtomicInteger(1);
+		front  = 2;
+	}
+
+	// Writer only, the buffer to fill before the next publish
+	public T back() {
+		return buffers.get(back);
+	}
+
+	// Writer only, makes the back buffer the newest value
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & INDEX;
+	}
+
+	// Reader only, moves the newest published value to the front. False if nothing was published since
+	// the last acquire, in which case the front is left as it was
+	public boolean acquire() {
+		if ((middle.get() & FRESH) == 0) {
+			return false;
+		}
+		front = middle.getAndSet(front) & INDEX;
+		return true;
+	}
+
+	// Reader only, the value last acquired
+	public T front() {
+		return buffers.get(front);
+	}
+}
@@ -1,27 +1,179 @@
 package com.gnarwhal.ld48.game;
 
+import com.gnarwhal.ld48.engine.assets.AssetManager;
 import com.gnarwhal.ld48.engine.display.Camera;
-import com.gnarwhal.ld48.engine.display.Window;
+import com.gnarwhal.ld48.engine.display.FramePipeline;
+import com.gnarwhal.ld48.engine.display.RenderQueue;
+import com.gnarwhal.ld48.engine.display.SpriteBatch;
+import com.gnarwhal.ld48.engine.input.Input;
+import com.gnarwhal.ld48.engine.particles.ParticleSystem;
+import com.gnarwhal.ld48.engine.util.StateHash;
+import com.gnarwhal.ld48.engine.util.TripleBuffer;
+
+import java.util.SplittableRandom;
 
 public class GamePanel {
 
+	// Render queue layers, everything in one draws over everything in the ones before
+	public static final int
+		RENDER_FLOOR    = 0,
+		RENDER_ENTITIES = 1,
+		RENDER_WALLS    = 2;
+
 	private Map map;
 	private Player player;
+	private ParticleSystem particles;
+	private PlayerRenderer player_renderer;
+	private SpriteBatch sprites;
+
+	// The simulation publishes a snapshot after its ticks and rendering draws the newest one, so the two
+	// can run on different threads at their own rates
+	private TripleBuffer<Snapshot> snapshots;
+
+	// Frames are built on the pipeline's worker from the snapshot, camera and alpha of the latest render
+	private FramePipeline pipeline;
+	private Snapshot render_snapshot;
+	private Camera render_camera;
+	private float render_alpha;
+
+	// Every random number in the simulation comes from this seed, so a run with the same seed and
+	// input plays out exactly the same
+	private long seed;
+
+	// Without assets the panel never touches GL, so it can tick with no window or context
+	public GamePanel(AssetManager assets, long seed) {
+		this(new Map(), assets, seed);
+	}
 
-	public GamePanel() {
-		map = new Map();
-		player = new Player();
+	// Headless panel playing on a grid shared with other panels
+	public GamePanel(TileGrid grid, long seed) {
+		this(new Map(grid), null, seed);
+	}
+
+	private GamePanel(Map map, AssetManager assets, long seed) {
+		this.map  = map;
+		this.seed = seed;
+
+		SplittableRandom random = new SplittableRandom(seed);
+		player = new Player(random.split());
+		particles = new ParticleSystem();
+		particles.add(player.particles);
+		if (assets != null) {
+			map.create_mesh();
+			player_renderer = new PlayerRenderer(assets);
+			sprites = new SpriteBatch();
+			snapshots = new TripleBuffer<>(new Snapshot(), new Snapshot(), new Snapshot());
+			pipeline = new FramePipeline(this::prepare);
+		}
+		map.await(player.base_position.x, player.base_position.y);
 	}
 	
-	public void update(Window window, Camera camera) {
-		player.move(window);
-		map.check_collisions(player);
+	public void update(Input input, Camera camera) {
+		player.snapshot();
+		Profiler.begin(Profiler.SCOPE_MOVE);
+		player.move(input);
+		Profiler.end(Profiler.SCOPE_MOVE);
+		Profiler.begin(Profiler.SCOPE_COLLISIONS);
+		int iterations = map.check_collisions(player);
+		Profiler.end(Profiler.SCOPE_COLLISIONS);
+		Profiler.begin(Profiler.SCOPE_PARTICLES);
+		particles.update((float) Main.dtime);
+		Profiler.end(Profiler.SCOPE_PARTICLES);
+		Profiler.begin(Profiler.SCOPE_PLAYER_UPDATE);
 		player.update(camera);
+		Profiler.end(Profiler.SCOPE_PLAYER_UPDATE);
+		Profiler.begin(Profiler.SCOPE_STREAM);
+		map.stream(camera);
+		Profiler.end(Profiler.SCOPE_STREAM);
+
+		Profiler.count(Profiler.COUNTER_PARTICLES, player.particles.count());
+		Profiler.count(Profiler.COUNTER_COLLISION_ITERATIONS, iterations);
 	}
 	
-	public void render(Camera camera) {
-		map.render_floor(camera);
-		player.render(camera);
-		map.render_walls(camera);
+	// Hands the state as of the last tick to rendering. Time is when that tick was due, in nanoseconds
+	public void publish(Camera camera, long time, long tick_length) {
+		if (snapshots != null) {
+			snapshots.back().capture(player, camera, time, tick_length);
+			snapshots.publish();
+		}
+	}
+
+	// Starts a frame of the newest snapshot as of now building on the pipeline's worker and draws the one
+	// built last time. The camera belongs to the render thread, the snapshot places it
+	public void render(Camera camera, long now) {
+		// The worker has to be done with the last snapshot and camera before either changes
+		pipeline.await();
+		snapshots.acquire();
+		render_snapshot = snapshots.front();
+		render_alpha    = render_snapshot.alpha(now);
+		render_camera   = camera;
+		render_snapshot.apply(camera, render_alpha);
+		pipeline.request();
+		Profiler.begin(Profiler.SCOPE_EXECUTE);
+		pipeline.execute();
+		Profiler.end(Profiler.SCOPE_EXECUTE);
+		// The worker is building the other slot by now, so the executed one's counts hold still
+		int slot = pipeline.getExecuted().getSlot();
+		Profiler.count(Profiler.COUNTER_DRAWS, map.draw_calls(slot, MapMesh.LAYER_FLOOR) + map.draw_calls(slot, MapMesh.LAYER_WALLS) + sprites.getDrawCalls());
+	}
+
+	// Everything submits into the queue, it then runs sorted by layer and state
+	private void prepare(RenderQueue queue) {
+		queue.begin(render_camera);
+		Profiler.begin(Profiler.SCOPE_RENDER_FLOOR);
+		map.submit_floor(queue, render_camera, RENDER_FLOOR);
+		Profiler.end(Profiler.SCOPE_RENDER_FLOOR);
+		Profiler.begin(Profiler.SCOPE_PLAYER_RENDER);
+		sprites.begin(render_camera);
+		player_renderer.render(render_snapshot, sprites, render_alpha);
+		sprites.submit(queue, RENDER_ENTITIES);
+		Profiler.end(Profiler.SCOPE_PLAYER_RENDER);
+		Profiler.begin(Profiler.SCOPE_RENDER_WALLS);
+		map.submit_walls(queue, render_camera, RENDER_WALLS);
+		Profiler.end(Profiler.SCOPE_RENDER_WALLS);
+	}
+
+	// Draw calls and uploaded sprite vertices of the last frame
+	public String render_stats() {
+		int slot = pipeline.getExecuted().getSlot();
+		return String.format(
+			"commands: %d, floor draws: %d, wall draws: %d, sprite draws: %d, sprite vertices: %d, sprites culled: %d",
+			pipeline.getExecuted().getCount(),
+			map.draw_calls(slot, MapMesh.LAYER_FLOOR),
+			map.draw_calls(slot, MapMesh.LAYER_WALLS),
+			sprites.getDrawCalls(),
+			sprites.getVerticesUploaded(),
+			sprites.getCulled()
+		);
+	}
+
+	// Milliseconds the last frame took to build on the worker, to draw, and waiting on the worker
+	public String frame_times() {
+		return String.format(
+			"prepare: %.2f ms, execute: %.2f ms, waited: %.2f ms",
+			pipeline.getPrepareTime() / 1e6,
+			pipeline.getExecuteTime() / 1e6,
+			pipeline.getWaitTime()    / 1e6
+		);
+	}
+
+	public void destroy() {
+		if (pipeline != null) {
+			pipeline.destroy();
+		}
+	}
+
+	// Folds the whole simulation into one value, equal hashes mean two runs played out the same
+	public long state_hash() {
+		long hash = StateHash.mix(StateHash.SEED, seed);
+		return player.state_hash(hash);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public Player getPlayer() {
+		return player;
 	}
 }
@@ -0,0 +1,113 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.assets.AssetManager;
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.input.Input;
+import com.gnarwhal.ld48.engine.input.InputRecorder;
+import com.gnarwhal.ld48.engine.input.ScriptedInput;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+// Ticks the game with no window, GL context or audio device as fast as the CPU allows:
+// Headless [--ticks N] [--tick-rate N] [--seed N] [--record path]
+public class Headless {
+
+	private static final int[] MOVE_KEYS = { GLFW_KEY_W, GLFW_KEY_A, GLFW_KEY_S, GLFW_KEY_D };
+
+	// Wanders around holding random movement keys, with the odd dash or quick attack thrown in
+	public static ScriptedInput script(long seed, int ticks) {
+		Random random = new Random(seed);
+		ScriptedInput input = new ScriptedInput();
+
+		int held = 0;
+		for (int tick = 0; tick < ticks; tick += 30 + random.nextInt(90)) {
+			int next = random.nextInt(1 << MOVE_KEYS.length);
+			for (int i = 0; i < MOVE_KEYS.length; ++i) {
+				boolean was = (held & (1 << i)) != 0;
+				boolean is  = (next & (1 << i)) != 0;
+				if (was && !is) {
+					input.release(tick, MOVE_KEYS[i]);
+				} else if (!was && is) {
+					input.press(tick, MOVE_KEYS[i]);
+				}
+			}
+			held = next;
+
+			int action = random.nextInt(4);
+			if (action == 0) {
+				input.press(tick, GLFW_KEY_SPACE).release(tick + 1, GLFW_KEY_SPACE);
+			} else if (action == 1) {
+				input.press(tick, GLFW_KEY_LEFT_SHIFT).release(tick + 1, GLFW_KEY_LEFT_SHIFT);
+			}
+		}
+		return input;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int    ticks  = 100000;
+		long   seed   = 0;
+		String record = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--ticks")) {
+				ticks = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("--tick-rate")) {
+				Main.tick_rate = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("--seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("--record")) {
+				record = args[i + 1];
+			}
+		}
+
+		Main.adtime = Main.tick_length(Main.tick_rate);
+		Main.dtime  = Main.adtime;
+
+		long load = System.nanoTime();
+		Camera camera = new Camera(1920, 1080);
+		GamePanel panel = new GamePanel((AssetManager) null, seed);
+		ScriptedInput script = script(seed, ticks);
+		InputRecorder recorder = record != null ? new InputRecorder(script, record, Main.tick_rate, seed) : null;
+		Input input = recorder != null ? recorder : script;
+		System.out.printf("Loaded in %.1f ms, running %d ticks at %d Hz of game time with seed %d%n", (System.nanoTime() - load) / 1e6, ticks, Main.tick_rate, seed);
+
+		// The per phase figures at the end come from the profiler's scope totals
+		Profiler.setEnabled(true);
+		Profiler.reset_totals();
+
+		long start  = System.nanoTime();
+		long report = start;
+		int  reported = 0;
+		for (int tick = 1; tick <= ticks; ++tick) {
+			script.update();
+			if (recorder != null) {
+				recorder.update();
+			}
+			panel.update(input, camera);
+			camera.update();
+
+			long now = System.nanoTime();
+			if (now - report >= 1000000000) {
+				System.out.printf("%d ticks/s%n", (long) ((tick - reported) * 1e9 / (now - report)));
+				report   = now;
+				reported = tick;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("%d ticks in %.1f ms, %.0f ticks/s%n", ticks, elapsed / 1e6, ticks * 1e9 / elapsed);
+		if (recorder != null) {
+			recorder.close(panel.state_hash());
+			System.out.println("Recorded to " + record);
+		}
+
+		Player player = panel.getPlayer();
+		System.out.printf("Player finished at (%s, %s) with %d particles%n", player.position.x, player.position.y, player.particles.count());
+
+		for (int scope : Profiler.TICK_SCOPES) {
+			System.out.printf("  %-22s %8.1f ns/tick%n", Profiler.SCOPES[scope], (double) Profiler.scope_total(scope) / ticks);
+		}
+	}
+}
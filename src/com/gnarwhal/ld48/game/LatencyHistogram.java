@@ -0,0 +1,81 @@
+package com.gnarwhal.ld48.game;
+
+// Log-linear histogram of nanosecond durations, every power of two is split into 8 buckets so
+// percentiles come out within 12.5% of the true value in constant space
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private long[] buckets;
+	private long count;
+	private long max;
+
+	public LatencyHistogram() {
+		buckets = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		++buckets[bucket(nanos)];
+		++count;
+		max = Math.max(max, nanos);
+	}
+
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < buckets.length; ++i) {
+			buckets[i] += other.buckets[i];
+		}
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	public void clear() {
+		for (int i = 0; i < buckets.length; ++i) {
+			buckets[i] = 0;
+		}
+		count = 0;
+		max   = 0;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	// Upper bound of the bucket holding the given fraction of samples, zero if nothing was recorded
+	public long percentile(double fraction) {
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; ++i) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(upper_bound(i), max);
+			}
+		}
+		return max;
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upper_bound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -1,12 +1,43 @@
 package com.gnarwhal.ld48.game;
 
+import com.gnarwhal.ld48.engine.assets.AssetManager;
 import com.gnarwhal.ld48.engine.audio.ALManagement;
 import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.display.GLState;
 import com.gnarwhal.ld48.engine.display.Window;
+import com.gnarwhal.ld48.engine.input.Input;
+import com.gnarwhal.ld48.engine.input.InputQueue;
+import com.gnarwhal.ld48.engine.input.InputRecorder;
 import com.gnarwhal.ld48.engine.shaders.Shader;
 
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.lwjgl.glfw.GLFW.*;
+
 public class Main {
 
+	// Simulation rate, independent of the monitor's refresh rate
+	public static int tick_rate = 60;
+
+	// Ticks the loop may run in one frame to catch up before it drops the backlog
+	private static final int MAX_CATCH_UP_TICKS = 5;
+
+	// Seeds the simulation, printed at startup so the run can be played again with --seed
+	public static long seed = System.nanoTime();
+
+	// Prints the frame rate and draw counts once a second
+	public static boolean stats = false;
+
+	// Turns the profiler on from the start, and dumps it to a CSV file once a second when given a path.
+	// PROFILER_KEY toggles the overlay, which turns the profiler on while it is showing
+	public static boolean profile = false;
+	public static String profile_path = null;
+	private static final int PROFILER_KEY = GLFW_KEY_F3;
+	private Profiler.CsvDump profile_dump;
+	private ProfilerOverlay overlay;
+	private boolean show_overlay;
+
 	public static int fps;
 	public static double dtime;
 	public static double adtime;
@@ -15,12 +46,34 @@ public class Main {
 	private static double freezeTime;
 
 	private ALManagement al;
+
+	// Nanoseconds of each frame that may go to uploading loaded assets
+	private static final long ASSET_UPLOAD_BUDGET = 2000000;
+	private AssetManager assets;
 	
 	private Window window;
-	private Camera camera;
+
+	// The simulation thread moves camera, render_camera belongs to the render thread and follows it
+	// through the snapshots
+	private Camera camera, render_camera;
+
+	private Thread simulation;
+	private volatile boolean running = true;
+	private volatile int tps;
+
+	// Records every tick's input for Replay when given a path with --record
+	public static String record_path = null;
+	private InputRecorder recorder;
+	private InputQueue input_queue;
+	private Input input;
 	
 	private GamePanel panel;
 
+	// Seconds per tick, worked out exactly as the loop steps so headless runs match it bit for bit
+	public static double tick_length(int tick_rate) {
+		return (1000000000 / tick_rate) / 1000000000d;
+	}
+
 	public static void freeze(float duration) {
 		freezeDuration = duration;
 		freezeTime     = 0;
@@ -28,6 +81,9 @@ public class Main {
 
 	public void start() {
 		init();
+		simulation = new Thread(this::simulate, "simulation");
+		simulation.start();
+
 		int frames = 0;
 		long curTime, pastTime, pastSec, nspf = 1000000000 / Window.REFRESH_RATE;
 		pastTime = System.nanoTime();
@@ -35,23 +91,37 @@ public class Main {
 		while(!window.shouldClose()) {
 			curTime = System.nanoTime();
 			if (curTime - pastTime > nspf) {
-				adtime = nspf / 1000000000d;
-				if (freezeDuration > freezeTime + adtime) {
-					dtime = 0;
-				} else if (freezeDuration > freezeTime) {
-					dtime = adtime - (freezeDuration - freezeTime);
-				} else {
-					dtime = adtime;
+				// Input and the gamepad are picked up here and reach the simulation by its next tick
+				Profiler.begin(Profiler.SCOPE_WINDOW_UPDATE);
+				window.update();
+				Profiler.end(Profiler.SCOPE_WINDOW_UPDATE);
+				input_queue.publish(window);
+				if (window.keyPressed(PROFILER_KEY) == Input.BUTTON_PRESSED) {
+					toggle_overlay();
 				}
-				freezeTime += adtime;
-				update();
-				render();
+				render(curTime);
 				pastTime += nspf;
 				++frames;
 			}
 			if (curTime - pastSec > 1000000000) {
 				fps = frames;
 				frames = 0;
+				if (stats) {
+					System.out.println("fps: " + fps + ", tps: " + tps + ", " + panel.render_stats() + ", gl calls: " + GLState.getIssued() + ", avoided: " + GLState.getAvoided());
+					System.out.println(panel.frame_times());
+					if (!assets.isIdle()) {
+						System.out.printf("assets: %.0f%%, decoding: %d, uploading: %d, failed: %d%n", assets.getProgress() * 100, assets.getDecodeQueueDepth(), assets.getUploadQueueDepth(), assets.getFailed());
+					}
+				}
+				if (Profiler.isEnabled()) {
+					Profiler.roll();
+					if (profile_dump != null) {
+						profile_dump.write();
+					}
+					if (stats) {
+						System.out.println(Profiler.report());
+					}
+				}
 				pastSec += 1000000000;
 			}
 			if (nspf - curTime + pastTime > 10000000) try {
@@ -60,10 +130,85 @@ public class Main {
 				e.printStackTrace();
 			}
 		}
+
+		running = false;
+		LockSupport.unpark(simulation);
+		try {
+			simulation.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		if (recorder != null) {
+			try {
+				recorder.close(panel.state_hash());
+				System.out.println("Recorded " + recorder.getTicks() + " ticks to " + record_path);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (profile_dump != null) {
+			profile_dump.close();
+		}
+		if (overlay != null) {
+			overlay.destroy();
+		}
+		panel.destroy();
+		assets.destroy();
 		al.destroy();
 		Window.terminate();
 	}
 
+	// Steps the simulation at tick_rate on its own thread, publishing a snapshot for rendering after each
+	// batch of ticks and sleeping until the next one is due
+	private void simulate() {
+		try {
+			int ticked = 0;
+			long curTime, pastSec, lastTick, accumulator = 0, nspt = 1000000000 / tick_rate;
+			adtime = tick_length(tick_rate);
+			lastTick = System.nanoTime();
+			pastSec = lastTick;
+			while (running) {
+				curTime = System.nanoTime();
+				accumulator += curTime - lastTick;
+				lastTick = curTime;
+
+				int ticks = 0;
+				while (accumulator >= nspt && ticks < MAX_CATCH_UP_TICKS) {
+					if (freezeDuration > freezeTime + adtime) {
+						dtime = 0;
+					} else if (freezeDuration > freezeTime) {
+						dtime = adtime - (freezeDuration - freezeTime);
+					} else {
+						dtime = adtime;
+					}
+					freezeTime += adtime;
+					update();
+					accumulator -= nspt;
+					++ticks;
+				}
+				if (accumulator >= nspt) {
+					// Too far behind to ever catch up, drop the backlog rather than spiral
+					accumulator %= nspt;
+				}
+				if (ticks > 0) {
+					panel.publish(camera, curTime - accumulator, nspt);
+					ticked += ticks;
+				}
+
+				if (curTime - pastSec > 1000000000) {
+					tps = ticked;
+					ticked = 0;
+					pastSec += 1000000000;
+				}
+				LockSupport.parkNanos(nspt - accumulator);
+			}
+		} catch (RuntimeException e) {
+			// Nothing would move any more, so take the window down with it
+			e.printStackTrace();
+			window.close();
+		}
+	}
+
 	private void init() {
 		al = new ALManagement();
 
@@ -71,23 +216,94 @@ public class Main {
 		window = new Window("Ludum Dare 48", true);
 		//window = new Window(WIN_WIDTH * 3/4, WIN_HEIGHT * 3/4, "Ludum Dare 48", true, true, true);
 		camera = new Camera(WIN_WIDTH, WIN_HEIGHT);
+		render_camera = new Camera(WIN_WIDTH, WIN_HEIGHT);
 
-		panel = new GamePanel();
+		assets = new AssetManager(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), ASSET_UPLOAD_BUDGET);
+
+		System.out.println("Seed: " + seed);
+		panel = new GamePanel(assets, seed);
+		// Everything made at startup compiles together, this is where it gets waited on
+		Shader.finishAll();
+		if (stats) {
+			System.out.println(Shader.report());
+		}
+
+		// Something has to be on screen before the first tick
+		panel.publish(camera, System.nanoTime(), 1000000000 / tick_rate);
+
+		if (profile_path != null) {
+			try {
+				profile_dump = new Profiler.CsvDump(profile_path);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		Profiler.setEnabled(profile);
+
+		input_queue = new InputQueue(window.getEvents());
+		input = input_queue;
+		if (record_path != null) {
+			try {
+				recorder = new InputRecorder(input_queue, record_path, tick_rate, seed);
+				input = recorder;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
+	// Runs on the simulation thread
 	private void update() {
-		window.update();
-		panel.update(window, camera);
+		camera.snapshot();
+		input_queue.update();
+		if (recorder != null) {
+			recorder.update();
+		}
+		panel.update(input, camera);
+		Profiler.begin(Profiler.SCOPE_CAMERA_UPDATE);
 		camera.update();
+		Profiler.end(Profiler.SCOPE_CAMERA_UPDATE);
 	}
 	
-	private void render() {
+	// Draws the newest snapshot as it should look at now
+	private void render(long now) {
+		GLState.resetCounts();
+		assets.update();
 		window.clear();
-		panel.render(camera);
+		panel.render(render_camera, now);
+		if (show_overlay) {
+			overlay.render();
+		}
+		Profiler.begin(Profiler.SCOPE_SWAP);
 		window.swap();
+		Profiler.end(Profiler.SCOPE_SWAP);
+	}
+
+	private void toggle_overlay() {
+		show_overlay = !show_overlay;
+		if (show_overlay && overlay == null) {
+			overlay = new ProfilerOverlay(render_camera.getWidth(), render_camera.getHeight());
+		}
+		Profiler.setEnabled(show_overlay || profile);
 	}
 	
 	public static void main(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--tick-rate") && i + 1 < args.length) {
+				tick_rate = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--record") && i + 1 < args.length) {
+				record_path = args[++i];
+			} else if (args[i].equals("--stats")) {
+				stats = true;
+			} else if (args[i].equals("--profile")) {
+				profile = true;
+			} else if (args[i].equals("--profile-csv") && i + 1 < args.length) {
+				profile = true;
+				profile_path = args[++i];
+			}
+		}
 		new Main().start();
 	}
 }
@@ -1,280 +1,255 @@
 package com.gnarwhal.ld48.game;
 
 import com.gnarwhal.ld48.engine.display.Camera;
-import com.gnarwhal.ld48.engine.model.Vao;
-import com.gnarwhal.ld48.engine.shaders.GradientShader;
-import org.joml.Vector2f;
+import com.gnarwhal.ld48.engine.display.RenderQueue;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.SplittableRandom;
 
 public class Map {
-	private static class Tile {
-		public static abstract class RenderPass {
-			protected float offset;
+	static abstract class RenderPass {
+		protected float offset;
 
-			protected RenderPass(float offset) {
-				this.offset = offset;
-			}
-
-			public abstract void render(Camera camera, int x, int y);
+		protected RenderPass(float offset) {
+			this.offset = offset;
 		}
 
-		public static class GradientPass extends RenderPass {
-			private static GradientShader shader = null;
-
-			private Vao vao;
+		// Appends the pass's geometry for a tile whose top left corner sits at (x, y)
+		public abstract void bake(MapMesh.Builder builder, float x, float y);
+	}
 
-			private float r, g, b, a;
+	static class GradientPass extends RenderPass {
+		private float[] vertices;
+		private int[]   indices;
+		private float[] values;
 
-			public GradientPass(Vao vao, float offset, float r, float g, float b, float a) {
-				super(offset);
+		public GradientPass(float[] vertices, int[] indices, float[] values, float offset) {
+			super(offset);
 
-				if (shader == null) {
-					shader = new GradientShader();
-				}
+			this.vertices = vertices;
+			this.indices  = indices;
+			this.values   = values;
+		}
 
-				this.vao = vao;
-				this.r   = r;
-				this.g   = g;
-				this.b   = b;
-				this.a   = a;
+		public void bake(MapMesh.Builder builder, float x, float y) {
+			int base = builder.vertex_count();
+			for (int i = 0; i < values.length; ++i) {
+				builder.vertex(
+					x + vertices[i * 3    ] * TILE_DIMS,
+					y + vertices[i * 3 + 1] * TILE_DIMS - offset,
+					vertices[i * 3 + 2],
+					values[i]
+				);
 			}
-
-			public void render(Camera camera, int x, int y) {
-				shader.enable();
-				shader.setColor(r, g, b, a);
-				shader.setMVP(camera.getMatrix().translate(x * TILE_DIMS, y * TILE_DIMS - offset, 0).scale(TILE_DIMS, TILE_DIMS, 1));
-				vao.render();
+			for (int i = 0; i < indices.length; ++i) {
+				builder.index(base + indices[i]);
 			}
 		}
+	}
 
-		public static final int
-			LEVEL_GROUND = 0,
-			LEVEL_WALL   = 1;
+	public static float TILE_DIMS = 128.0f;
 
-		public int     level;
-		public boolean solid;
-		public ArrayList<RenderPass> render_passes;
+	private static final String
+		LAYOUT          = "res/map/layout.png",
+		COMPILED_LAYOUT = "cache/map/layout.bin";
+
+	private static final ArrayList<RenderPass> TOP_GROUND_RENDER = new ArrayList<>();
+	private static final ArrayList<RenderPass> MID_GROUND_RENDER = new ArrayList<>();
+
+	private MapLoader loader;
+	private TileGrid grid;
+	private MapMesh mesh;
+
+	// A slide hits at most one wall per axis, so this only cuts off degenerate motion
+	public static final int MAX_COLLISION_STEPS = 4;
+
+	// Scratch results of check_intersection and resolve, kept in fields so collision checks don't allocate
+	private float hit_axis;
+	private float resolved_x, resolved_y;
+	private int   resolved_hits;
+
+	// Built once up front so maps can be constructed from several threads at once
+	static {
+		GradientPass floor_pass = new GradientPass(
+			new float[] {
+				1, 0, 0,
+				1, 1, 0,
+				0, 1, 0,
+				0, 0, 0
+			},
+			new int[] {
+				0, 1, 3,
+				1, 2, 3
+			},
+			new float[] { 0.5f, 0.5f, 0.5f, 0.5f },
+			0
+		);
+		MID_GROUND_RENDER.add(floor_pass);
+
+		GradientPass wall_pass = new GradientPass(
+			new float[] {
+				1, 0,     0,
+				1, 0.75f, 0,
+				0, 0.75f, 0,
+				0, 0,     0
+			},
+			new int[] {
+				0, 1, 3,
+				1, 2, 3
+			},
+			new float[] { 0.35f, 1.0f, 1.0f, 0.35f },
+			TILE_DIMS * 0.75f
+		);
+		TOP_GROUND_RENDER.add(wall_pass);
+		TOP_GROUND_RENDER.add(floor_pass);
+	}
 
-		public Tile(int level, boolean solid, ArrayList<RenderPass> render_passes) {
-			this.level = level;
-			this.solid = solid;
-			this.render_passes = render_passes;
+	public Map() {
+		try {
+			grid = MapFile.map(COMPILED_LAYOUT, LAYOUT);
+		} catch (IOException | RuntimeException e) {
+			// The compiled layout is only a cache of the image, a corrupt one gets rebuilt below
+			e.printStackTrace();
+		}
+		if (grid != null) {
+			return;
 		}
 
-		public Tile clone() {
-			return new Tile(
-				this.level,
-				this.solid,
-				this.render_passes == null ? null : new ArrayList<>(this.render_passes)
-			);
+		try {
+			loader = new MapLoader(LAYOUT, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to load map: " + LAYOUT, e);
 		}
+		grid = loader.grid();
+		loader.start();
+
+		// Missing, stale or corrupt, so the next launch maps a fresh copy
+		Thread compiler = new Thread(() -> {
+			try {
+				MapFile.compile(LAYOUT, COMPILED_LAYOUT);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "map-compile");
+		compiler.setDaemon(true);
+		compiler.start();
 	}
 
-	public static float TILE_DIMS = 128.0f;
+	// Shares an already loaded grid, which the map only ever reads from
+	public Map(TileGrid grid) {
+		this.grid = grid;
+	}
 
-	private static final ArrayList<Tile.RenderPass> TOP_GROUND_RENDER = new ArrayList<>();
-	private static final ArrayList<Tile.RenderPass> MID_GROUND_RENDER = new ArrayList<>();
-	private static final ArrayList<Tile.RenderPass>[] WALL_BORDER_RENDER = new ArrayList[256];
+	// Loads the whole layout on the calling thread, preferring the compiled copy
+	public static TileGrid load_grid() throws IOException {
+		TileGrid grid = MapFile.map(COMPILED_LAYOUT, LAYOUT);
+		return grid != null ? grid : TileGrid.load(LAYOUT);
+	}
 
-	private static final Tile
-		GROUND_TILE  = new Tile(Tile.LEVEL_GROUND, true, null),
-		WALL_TILE    = new Tile(Tile.LEVEL_WALL,   true, null);
+	// GPU side of the map, only needed when it is going to be drawn
+	public void create_mesh() {
+		mesh = new MapMesh(this, grid);
+	}
 
-	private Tile[][] map;
+	// Blocks until the tiles around the world position are ready to play on
+	public void await(float x, float y) {
+		if (loader != null) {
+			loader.focus(x, y);
+			loader.await(x, y);
+		}
+	}
 
-	public Map() {
-		if (TOP_GROUND_RENDER.size() == 0) {
-			Vao vao = new Vao(
-				new float[] {
-					1, 0, 0,
-					1, 1, 0,
-					0, 1, 0,
-					0, 0, 0
-				},
-				new int[] {
-					0, 1, 3,
-					1, 2, 3
-				}
-			);
-			vao.addAttrib(
-				new float[] { 0.5f, 0.5f, 0.5f, 0.5f },
-				1
-			);
-			Tile.GradientPass floor_pass = new Tile.GradientPass(vao, 0, 1, 1, 1, 1);
-			MID_GROUND_RENDER.add(floor_pass);
-
-			vao = new Vao(
-				new float[] {
-					1, 0,     0,
-					1, 0.75f, 0,
-					0, 0.75f, 0,
-					0, 0,     0
-				},
-				new int[] {
-					0, 1, 3,
-					1, 2, 3
-				}
-			);
-			vao.addAttrib(
-				new float[] { 0.35f, 1.0f, 1.0f, 0.35f },
-				1
-			);
-			Tile.GradientPass wall_pass = new Tile.GradientPass(vao, TILE_DIMS * 0.75f, 1, 1, 1, 1);
-			TOP_GROUND_RENDER.add(wall_pass);
-			TOP_GROUND_RENDER.add(floor_pass);
-
-			float[] vertices = new float[] {
-				0,     0,     0,
-				0.25f, 0,     0,
-				0.75f, 0,     0,
-				1,     0,     0,
-				1,     0.15f, 0,
-				1,     0.85f, 0,
-				1,     1,     0,
-				0.75f, 1,     0,
-				0.25f, 1,     0,
-				0,     1,     0,
-				0,     0.85f, 0,
-				0,     0.15f, 0,
-				0.25f, 0.15f, 0,
-				0.75f, 0.15f, 0,
-				0.75f, 0.85f, 0,
-				0.25f, 0.85f, 0
-			};
-			int[] indices = new int[] {
-				0, 11, 12,
-				0, 12, 1,
-				1, 12, 2,
-				12, 13, 2,
-				2, 13, 3,
-				3, 13, 4,
-				4, 13, 5,
-				13, 14, 5,
-				5, 14, 6,
-				6, 14, 7,
-				7, 14, 8,
-				14, 15, 8,
-				8, 15, 9,
-				9, 15, 10,
-				10, 15, 11,
-				15, 12, 11,
-				12, 15, 13,
-				13, 15, 14
-			};
-
-			float[] values = new float[16];
-			for (int i = 0; i <= 0b11111111; ++i) {
-				for (int j = 0; j < 16; ++j) {
-					values[j] = 0;
-				}
-				int mask = i;
-				for (int j = 0; j < 4; ++j) {
-					if ((mask & 1) != 0) {
-						for (int k = 0; k < 4; ++k) {
-							values[(j * 3 + k) % 12] = 0.25f;
-						}
-					}
-					mask >>= 1;
-				}
-				for (int j = 0; j < 4; ++j) {
-					if ((mask & 1) != 0) {
-						values[j * 3] = 0.25f;
-					}
-					mask >>= 1;
-				}
-				vao = new Vao(vertices, indices);
-				vao.addAttrib(values, 1);
+	public void stream(Camera camera) {
+		if (loader != null && !loader.done()) {
+			loader.focus(camera.getX() + camera.getWidth() * 0.5f, camera.getY() + camera.getHeight() * 0.5f);
+		}
+	}
 
-				ArrayList<Tile.RenderPass> render_pass = new ArrayList<>();
-				render_pass.add(new Tile.GradientPass(vao, TILE_DIMS * 0.75f, 1, 1, 1, 1));
-				WALL_BORDER_RENDER[i] = render_pass;
-			}
+	ArrayList<RenderPass> render_passes(int x, int y) {
+		// Wall borders are drawn procedurally from the mask by MapMesh
+		int level = grid.level(x, y);
+		if (level == TileGrid.LEVEL_GROUND) {
+			return grid.mask(x, y) != 0 ? TOP_GROUND_RENDER : MID_GROUND_RENDER;
+		} else {
+			return null;
 		}
+	}
 
-		try {
-			final int WALL_COLOR   = 0xFF000000;
-			final int GROUND_COLOR = 0xFFFFFFFF;
-
-			BufferedImage map_layout = ImageIO.read(new File("res/map/layout.png"));
-			map = new Tile[map_layout.getWidth()][map_layout.getHeight()];
-			for (int x = 0; x < map_layout.getWidth(); ++x) {
-				for (int y = 0; y < map_layout.getHeight(); ++y) {
-					if (map_layout.getRGB(x, y) == WALL_COLOR) {
-						map[x][y] = WALL_TILE.clone();
-					} else if (map_layout.getRGB(x, y) == GROUND_COLOR) {
-						map[x][y] = GROUND_TILE.clone();
-						if (y > 0 && map[x][y - 1].level == Tile.LEVEL_WALL) {
-							map[x][y].render_passes = TOP_GROUND_RENDER;
-						} else {
-							map[x][y].render_passes = MID_GROUND_RENDER;
-						}
-					}
-				}
-			}
-			for (int x = 0; x < map_layout.getWidth(); ++x) {
-				for (int y = 0; y < map_layout.getHeight(); ++y) {
-					if (map[x][y].level == Tile.LEVEL_WALL) {
-						int result = 0;
-						if (                      y > 0                 && map[x    ][y - 1].level == Tile.LEVEL_GROUND) { result |= 1 << 0; }
-						if (x < map.length - 1                          && map[x + 1][y    ].level == Tile.LEVEL_GROUND) { result |= 1 << 1; }
-						if (                      y < map[0].length - 1 && map[x    ][y + 1].level == Tile.LEVEL_GROUND) { result |= 1 << 2; }
-						if (x > 0                                       && map[x - 1][y    ].level == Tile.LEVEL_GROUND) { result |= 1 << 3; }
-						if (x > 0              && y > 0                 && map[x - 1][y - 1].level == Tile.LEVEL_GROUND) { result |= 1 << 4; }
-						if (x < map.length - 1 && y > 0                 && map[x + 1][y - 1].level == Tile.LEVEL_GROUND) { result |= 1 << 5; }
-						if (x < map.length - 1 && y < map[0].length - 1 && map[x + 1][y + 1].level == Tile.LEVEL_GROUND) { result |= 1 << 6; }
-						if (x > 0              && y < map[0].length - 1 && map[x - 1][y + 1].level == Tile.LEVEL_GROUND) { result |= 1 << 7; }
-						map[x][y].render_passes = new ArrayList<>(WALL_BORDER_RENDER[result]);
-					}
-				}
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+	// Returns the number of sub-steps used
+	public int check_collisions(Player player) {
+		final float HALF_DIMS = Player.PLAYER_DIMS * 0.5f;
+
+		int iterations = resolve(
+			player.base_position.x, player.base_position.y, 0.5f * TILE_DIMS,
+			HALF_DIMS, HALF_DIMS,
+			player.velocity.x, player.velocity.y,
+			MAX_COLLISION_STEPS
+		);
+		player.base_position.set(resolved_x, resolved_y);
+		for (int i = 0; i < resolved_hits; ++i) {
+			player.proc_collision();
+		}
+		return iterations;
+	}
+
+	// Resolves every mover in the batch against the walls, returns the number of sub-steps used
+	public int check_collisions(MoverBatch movers) {
+		int iterations = 0;
+		for (int i = 0; i < movers.count; ++i) {
+			iterations += resolve(
+				movers.position_x[i], movers.position_y[i], 0,
+				movers.half_x[i], movers.half_y[i],
+				movers.velocity_x[i], movers.velocity_y[i],
+				movers.max_steps
+			);
+			movers.position_x[i] = resolved_x;
+			movers.position_y[i] = resolved_y;
+			movers.collisions[i] = resolved_hits;
 		}
+		movers.iterations = iterations;
+		return iterations;
 	}
 
-	public void check_collisions(Player player) {
-		Vector2f player_motion   = new Vector2f(player.velocity);
-		Vector2f player_position = player.base_position.add(0, 0.5f * TILE_DIMS, new Vector2f());
+	// Slides a box whose centre sits offset_y below (x, y) along the walls. The final position ends
+	// up in resolved_x / resolved_y and the number of walls hit in resolved_hits. Motion left over
+	// once max_steps is reached is dropped so a bad velocity can't stall the tick.
+	private int resolve(float x, float y, float offset_y, float half_x, float half_y, float motion_x, float motion_y, int max_steps) {
+		float position_x = x;
+		float position_y = y + offset_y;
 
-		Vector2f player_pos_min = new Vector2f(
-			Math.min(0, player_motion.x),
-			Math.min(0, player_motion.y)
-		).add(player_position).add(new Vector2f(-Player.PLAYER_DIMS * 0.5f));
-		Vector2f player_pos_max = new Vector2f(
-			Math.max(0, player_motion.x),
-			Math.max(0, player_motion.y)
-		).add(player_position).add(new Vector2f(Player.PLAYER_DIMS * 0.5f));
+		int min_x = (int) ((Math.min(0, motion_x) + position_x - half_x) / TILE_DIMS);
+		int min_y = (int) ((Math.min(0, motion_y) + position_y - half_y) / TILE_DIMS);
+		int max_x = (int) ((Math.max(0, motion_x) + position_x + half_x) / TILE_DIMS);
+		int max_y = (int) ((Math.max(0, motion_y) + position_y + half_y) / TILE_DIMS);
 
-		int min_x = (int) (player_pos_min.x / TILE_DIMS);
-		int min_y = (int) (player_pos_min.y / TILE_DIMS);
-		int max_x = (int) (player_pos_max.x / TILE_DIMS);
-		int max_y = (int) (player_pos_max.y / TILE_DIMS);
+		resolved_hits = 0;
 
+		int steps = 0;
 		float min_t = 0.0f;
-		while (min_t < 1.0f) {
-			player_position = player.base_position.add(0, 0.5f * TILE_DIMS, new Vector2f());
+		while (min_t < 1.0f && steps < max_steps) {
+			++steps;
+
+			position_x = x;
+			position_y = y + offset_y;
 			min_t = 1.0f;
 
 			float neutralization_direction = 0.0f;
-			for (int x = min_x; x <= max_x; ++x) {
-				for (int y = min_y; y <= max_y; ++y) {
-					if (map[x][y].level == Tile.LEVEL_WALL) {
-						Vector2f[] recall_distances = new Vector2f[] {
-							check_intersection(x, y, player_position.add(-Player.PLAYER_DIMS * 0.5f, -Player.PLAYER_DIMS * 0.5f, new Vector2f()), player_motion),
-							check_intersection(x, y, player_position.add( Player.PLAYER_DIMS * 0.5f, -Player.PLAYER_DIMS * 0.5f, new Vector2f()), player_motion),
-							check_intersection(x, y, player_position.add(-Player.PLAYER_DIMS * 0.5f,  Player.PLAYER_DIMS * 0.5f, new Vector2f()), player_motion),
-							check_intersection(x, y, player_position.add( Player.PLAYER_DIMS * 0.5f,  Player.PLAYER_DIMS * 0.5f, new Vector2f()), player_motion)
-						};
-
+			for (int tile_x = min_x; tile_x <= max_x; ++tile_x) {
+				for (int tile_y = min_y; tile_y <= max_y; ++tile_y) {
+					if (grid.is_wall(tile_x, tile_y)) {
 						for (int i = 0; i < 4; ++i) {
-							if (recall_distances[i] != null && recall_distances[i].x < min_t) {
-								min_t = recall_distances[i].x;
-								neutralization_direction = recall_distances[i].y;
+							float t = check_intersection(
+								tile_x, tile_y,
+								position_x + ((i & 1) == 0 ? -half_x : half_x),
+								position_y + ((i & 2) == 0 ? -half_y : half_y),
+								motion_x, motion_y
+							);
+							if (t < min_t) {
+								min_t = t;
+								neutralization_direction = hit_axis;
 							}
 						}
 					}
@@ -282,42 +257,56 @@ public class Map {
 			}
 
 			if (min_t < 1.0f) {
-				Vector2f valid_motion = player_motion.mul(min_t, new Vector2f());
+				float valid_x = motion_x * min_t;
+				float valid_y = motion_y * min_t;
 
-				player.base_position.add(valid_motion);
-				player_motion.sub(valid_motion).mul(neutralization_direction, 1 - neutralization_direction);
+				x += valid_x;
+				y += valid_y;
+				motion_x = (motion_x - valid_x) * neutralization_direction;
+				motion_y = (motion_y - valid_y) * (1 - neutralization_direction);
 
-				player.proc_collision();
+				++resolved_hits;
 
-				if (player_motion.lengthSquared() < 0.001f) {
+				if (motion_x * motion_x + motion_y * motion_y < 0.001f) {
 					min_t = 1.0f;
 				}
 			} else {
-				player.base_position.add(player_motion);
+				x += motion_x;
+				y += motion_y;
 			}
 		}
+
+		resolved_x = x;
+		resolved_y = y;
+		return steps;
 	}
 
-	public Vector2f check_intersection(int x, int y, Vector2f position, Vector2f motion) {
-		Vector2f wall_start = new Vector2f(x * TILE_DIMS, y * TILE_DIMS);
-		Vector2f wall_end   = new Vector2f(0, TILE_DIMS);
+	// Returns the time of impact of the point against the tile's edges (1 if there is none)
+	// and leaves the axis of the edge that was hit in hit_axis
+	public float check_intersection(int x, int y, float position_x, float position_y, float motion_x, float motion_y) {
+		float wall_start_x = x * TILE_DIMS;
+		float wall_start_y = y * TILE_DIMS;
+		float wall_end_x   = 0;
+		float wall_end_y   = TILE_DIMS;
 
-		Vector2f min = new Vector2f(1, 0);
+		float min_t = 1;
+		hit_axis = 0;
 		for (int i = 0; i < 4; ++i) {
-			if (motion.dot(new Vector2f(-wall_end.y, wall_end.x)) < 0) {
+			if (motion_x * -wall_end_y + motion_y * wall_end_x < 0) {
 				float t0, t1;
-				if (motion.y == 0) {
-					t0 = (motion.y * (wall_start.x - position.x) / motion.x + position.y - wall_start.y) / (wall_end.y - motion.y * wall_end.x / motion.x);
-					t1 = (wall_end.x * t0 + wall_start.x - position.x) / motion.x;
+				if (motion_y == 0) {
+					t0 = (motion_y * (wall_start_x - position_x) / motion_x + position_y - wall_start_y) / (wall_end_y - motion_y * wall_end_x / motion_x);
+					t1 = (wall_end_x * t0 + wall_start_x - position_x) / motion_x;
 				} else {
-					t0 = (motion.x * (wall_start.y - position.y) / motion.y + position.x - wall_start.x) / (wall_end.x - motion.x * wall_end.y / motion.y);
-					t1 = (wall_end.y * t0 + wall_start.y - position.y) / motion.y;
+					t0 = (motion_x * (wall_start_y - position_y) / motion_y + position_x - wall_start_x) / (wall_end_x - motion_x * wall_end_y / motion_y);
+					t1 = (wall_end_y * t0 + wall_start_y - position_y) / motion_y;
 				}
 
 				if (0 <  t0 && t0 < 1
 				 && -0.0001f <= t1 && t1 < 1
-				 && t1 < min.x) {
-					min.set(t1, i % 2);
+				 && t1 < min_t) {
+					min_t    = t1;
+					hit_axis = i % 2;
 				}
 			}
 			/*
@@ -331,49 +320,69 @@ public class Map {
 				t = (c1 * (b0 - d0) / c0 + d1 - b1) / (a1 - c1 * a0 / c0)
 			*/
 
-			wall_start.add(wall_end);
-			wall_end.set(wall_end.y, -wall_end.x);
-		}
-		if (min.x < 1) {
-			return min;
-		} else {
-			return null;
+			wall_start_x += wall_end_x;
+			wall_start_y += wall_end_y;
+
+			float swap = wall_end_x;
+			wall_end_x = wall_end_y;
+			wall_end_y = -swap;
 		}
+		return min_t;
 	}
 
-	public void render_floor(Camera camera) {
-		int min_x = (int) Math.max((camera.getX() / TILE_DIMS), 0);
-		int min_y = (int) Math.max((camera.getY() / TILE_DIMS), 0);
-		int max_x = (int) Math.min(((camera.getX() + camera.getWidth())  / TILE_DIMS), map.length - 1);
-		int max_y = (int) Math.min(((camera.getY() + camera.getHeight()) / TILE_DIMS) + 1, map[0].length - 1);
-		for (int x = min_x; x <= max_x; ++x) {
-			for (int y = min_y; y <= max_y; ++y) {
-				if (map[x][y].level == Tile.LEVEL_GROUND) {
-					ArrayList<Tile.RenderPass> render_passes = map[x][y].render_passes;
-					if (render_passes != null) {
-						for (int i = 0; i < render_passes.size(); ++i) {
-							render_passes.get(i).render(camera, x, y);
-						}
-					}
-				}
-			}
-		}
+	public void submit_floor(RenderQueue queue, Camera camera, int render_layer) {
+		mesh.submit(queue, camera, MapMesh.LAYER_FLOOR, render_layer);
 	}
 
-	public void render_walls(Camera camera) {
-		int min_x = (int) Math.max((camera.getX() / TILE_DIMS), 0);
-		int min_y = (int) Math.max(((camera.getY() + 0.75f * TILE_DIMS) / TILE_DIMS), 0);
-		int max_x = (int) Math.min(((camera.getX() + camera.getWidth())  / TILE_DIMS), map.length - 1);
-		int max_y = (int) Math.min(((camera.getY() + camera.getHeight() + 0.75f * TILE_DIMS) / TILE_DIMS), map[0].length - 1);
-		for (int x = min_x; x <= max_x; ++x) {
-			for (int y = min_y; y <= max_y; ++y) {
-				if (map[x][y].level == Tile.LEVEL_WALL) {
-					ArrayList<Tile.RenderPass> render_passes = map[x][y].render_passes;
-					if (render_passes != null) {
-						for (int i = 0; i < render_passes.size(); ++i) {
-							render_passes.get(i).render(camera, x, y);
-						}
+	public void submit_walls(RenderQueue queue, Camera camera, int render_layer) {
+		mesh.submit(queue, camera, MapMesh.LAYER_WALLS, render_layer);
+	}
+
+	// Draw calls the last submit of the layer into the slot queued
+	public int draw_calls(int slot, int layer) {
+		return mesh.draw_calls(slot, layer);
+	}
+
+	// Checks collision resolution allocates nothing once warm: Map [calls] [movers]
+	public static void main(String[] args) throws IOException {
+		int calls  = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int movers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		Map map = new Map(load_grid());
+		Player player = new Player(new SplittableRandom(0));
+		MoverBatch batch = new MoverBatch(movers, MAX_COLLISION_STEPS);
+		for (int i = 0; i < movers; ++i) {
+			batch.add(0, 0, Player.PLAYER_DIMS * 0.5f, Player.PLAYER_DIMS * 0.5f);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Random random = new Random(0);
+		float spawn_x = player.base_position.x;
+		float spawn_y = player.base_position.y;
+
+		// The first pass warms the JIT up, the second is the one measured
+		for (int pass = 0; pass < 2; ++pass) {
+			long before = threads.getCurrentThreadAllocatedBytes();
+			long start  = System.nanoTime();
+			for (int i = 0; i < calls; ++i) {
+				player.base_position.set(spawn_x, spawn_y);
+				player.velocity.set(random.nextFloat() * 2 - 1, random.nextFloat() * 2 - 1).mul(TILE_DIMS);
+				map.check_collisions(player);
+				if (i % movers == 0) {
+					for (int j = 0; j < movers; ++j) {
+						batch.position_x[j] = spawn_x + random.nextFloat() * TILE_DIMS * 4 - TILE_DIMS * 2;
+						batch.position_y[j] = spawn_y + random.nextFloat() * TILE_DIMS * 4 - TILE_DIMS * 2;
+						batch.set_velocity(j, (random.nextFloat() * 2 - 1) * TILE_DIMS, (random.nextFloat() * 2 - 1) * TILE_DIMS);
 					}
+					map.check_collisions(batch);
+				}
+			}
+			long elapsed   = System.nanoTime() - start;
+			long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+			if (pass == 1) {
+				System.out.printf("%d calls: %.1f ns/call, %d bytes allocated%n", calls, (double) elapsed / calls, allocated);
+				if (allocated != 0) {
+					throw new RuntimeException("Collision resolution allocated " + allocated + " bytes over " + calls + " calls");
 				}
 			}
 		}
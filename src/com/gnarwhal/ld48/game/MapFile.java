@@ -0,0 +1,158 @@
+package com.gnarwhal.ld48.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+	Compiled map layout, little endian:
+
+		int  magic ('LD48')
+		int  version
+		int  width
+		int  height
+		long size of the layout image it was compiled from
+		long modification time of that image, milliseconds since the epoch
+		long solid[TileGrid.solid_longs(width, height)]
+		byte level[width * height]
+		byte mask[width * height]
+
+	Tile data is laid out exactly as TileGrid keeps it, so a mapped file backs the grid directly, with
+	the solid bits straight after the header to keep them 8 byte aligned. The
+	image's size and time only have to be stat'ed to tell whether the file is stale, reading the image
+	would cost what mapping is meant to save.
+*/
+public class MapFile {
+
+	public static final int
+		MAGIC   = 0x3834444C,
+		VERSION = 4;
+
+	private static final int HEADER_BYTES = 32;
+
+	public static void compile(String source, String target) throws IOException {
+		// Stamped before reading, so an image changed mid compile leaves the result stale rather than wrong
+		File image = new File(source);
+		long size     = image.length();
+		long modified = image.lastModified();
+		TileGrid grid = TileGrid.load(source);
+
+		int tiles  = grid.getWidth() * grid.getHeight();
+		int solids = TileGrid.solid_longs(grid.getWidth(), grid.getHeight()) * 8;
+
+		ByteBuffer solid = ByteBuffer.allocate(solids).order(ByteOrder.LITTLE_ENDIAN);
+		solid.asLongBuffer().put(grid.solids());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(grid.getWidth());
+		header.putInt(grid.getHeight());
+		header.putLong(size);
+		header.putLong(modified);
+		header.flip();
+
+		// Written aside and moved into place, so a crash or an exit mid compile never leaves half a file behind
+		File directory = new File(target).getAbsoluteFile().getParentFile();
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Failed to create map cache directory: " + directory);
+		}
+		Path temporary = Paths.get(target + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			write(channel, header, 0);
+			write(channel, solid, HEADER_BYTES);
+			write(channel, grid.levels(), HEADER_BYTES + solids);
+			write(channel, grid.masks(), HEADER_BYTES + solids + tiles);
+		}
+		Files.move(temporary, Paths.get(target), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Maps a compiled layout, returns null if it is missing or was compiled from a different source image.
+	// The header is checked with a plain read first, so a stale or corrupt file is never mapped and can be
+	// replaced straight away, which Windows refuses while a mapping is open
+	public static TileGrid map(String path, String source) throws IOException {
+		if (!new File(path).exists()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0) {}
+			if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+				throw new IOException("Not a compiled map: " + path);
+			}
+			if (header.getInt(4) != VERSION) {
+				return null;
+			}
+			File image = new File(source);
+			if (image.exists() && (header.getLong(16) != image.length() || header.getLong(24) != image.lastModified())) {
+				return null;
+			}
+
+			int width  = header.getInt(8);
+			int height = header.getInt(12);
+			if (width <= 0 || height <= 0 || ((width + 63L) >>> 6) * height * 8 + (long) width * height * 2 > channel.size() - HEADER_BYTES) {
+				throw new IOException("Compiled map is truncated or has a bad size: " + path);
+			}
+
+			int tiles  = width * height;
+			int solids = TileGrid.solid_longs(width, height) * 8;
+			MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES + solids + tiles * 2L);
+			try {
+				return new TileGrid(
+					width, height,
+					slice(file, HEADER_BYTES + solids,         tiles),
+					slice(file, HEADER_BYTES + solids + tiles, tiles),
+					slice(file, HEADER_BYTES, solids).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer()
+				);
+			} catch (RuntimeException e) {
+				throw new IOException("Corrupt compiled map: " + path, e);
+			}
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+	private static void write(FileChannel channel, ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+
+	// Compiles a layout image and compares loading it both ways: MapFile [source] [target] [runs]
+	public static void main(String[] args) throws IOException {
+		String source = args.length > 0 ? args[0] : "res/map/layout.png";
+		String target = args.length > 1 ? args[1] : "cache/map/layout.bin";
+		int    runs   = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		compile(source, target);
+		System.out.println("Compiled " + source + " to " + target);
+
+		long decode = 0, mapped = 0, sink = 0;
+		for (int i = 0; i < runs; ++i) {
+			long start = System.nanoTime();
+			TileGrid grid = TileGrid.load(source);
+			sink += grid.mask(grid.getWidth() / 2, grid.getHeight() / 2);
+			decode += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			grid = map(target, source);
+			sink += grid.mask(grid.getWidth() / 2, grid.getHeight() / 2);
+			mapped += System.nanoTime() - start;
+		}
+		System.out.printf("PNG decode: %.2f ms, mapped: %.2f ms (average of %d, %d)%n", decode / 1e6 / runs, mapped / 1e6 / runs, runs, sink);
+	}
+}
@@ -0,0 +1,203 @@
+package com.gnarwhal.ld48.game;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+public class MapLoader {
+
+	private static final int BANDS_PER_WORKER = 4;
+
+	private String path;
+	private TileGrid grid;
+
+	// Bands of chunk rows still waiting on a worker, the nearest to the focus is taken first. The PNG
+	// reader inflates the whole image for every region read, so a full width band costs about as much
+	// as a single chunk and there are only a few bands per worker
+	private int band_chunks;
+	private int[] pending;
+	private int pending_count;
+	private int focus_x, focus_y;
+
+	private Thread[] workers;
+	private int finished;
+	// The first thing that went wrong on a worker, its bands are never filled in so waiting on them is an error
+	private Exception failure;
+
+	public MapLoader(String path, int threads) throws IOException {
+		this.path = path;
+
+		ImageReader reader = open();
+		try {
+			grid = new TileGrid(reader.getWidth(0), reader.getHeight(0));
+		} finally {
+			close(reader);
+		}
+
+		band_chunks   = Math.max(1, (grid.getChunksY() + threads * BANDS_PER_WORKER - 1) / (threads * BANDS_PER_WORKER));
+		pending_count = (grid.getChunksY() + band_chunks - 1) / band_chunks;
+		pending = new int[pending_count];
+		for (int i = 0; i < pending_count; ++i) {
+			pending[i] = i;
+		}
+
+		workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Thread(this::work, "map-loader-" + i);
+			workers[i].setDaemon(true);
+		}
+	}
+
+	public TileGrid grid() {
+		return grid;
+	}
+
+	public void start() {
+		for (Thread worker : workers) {
+			worker.start();
+		}
+	}
+
+	// Chunks nearest to the given world position get decoded first
+	public synchronized void focus(float x, float y) {
+		focus_x = (int) (x / Map.TILE_DIMS) / TileGrid.CHUNK_SIZE;
+		focus_y = (int) (y / Map.TILE_DIMS) / TileGrid.CHUNK_SIZE;
+	}
+
+	// Blocks until the chunk under the world position has been filled in, throws if a worker failed
+	public void await(float x, float y) {
+		int tile_x = Math.max(0, Math.min((int) (x / Map.TILE_DIMS), grid.getWidth()  - 1));
+		int tile_y = Math.max(0, Math.min((int) (y / Map.TILE_DIMS), grid.getHeight() - 1));
+		synchronized (this) {
+			while (!grid.tile_loaded(tile_x, tile_y) && finished < workers.length) {
+				check_failure();
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			check_failure();
+		}
+	}
+
+	// Throws if a worker failed, rather than reporting a grid with holes in it as loaded
+	public synchronized boolean done() {
+		check_failure();
+		return pending_count == 0 && finished == workers.length;
+	}
+
+	private void check_failure() {
+		if (failure != null) {
+			throw new RuntimeException("Failed to load map: " + path, failure);
+		}
+	}
+
+	private synchronized int next_band() {
+		if (pending_count == 0) {
+			return -1;
+		}
+
+		int best = 0;
+		int best_distance = Integer.MAX_VALUE;
+		for (int i = 0; i < pending_count; ++i) {
+			int distance = Math.abs(pending[i] * band_chunks + band_chunks / 2 - focus_y);
+			if (distance < best_distance) {
+				best_distance = distance;
+				best = i;
+			}
+		}
+
+		int band = pending[best];
+		pending[best] = pending[--pending_count];
+		return band;
+	}
+
+	private void work() {
+		ImageReader reader = null;
+		try {
+			reader = open();
+			int width  = grid.getWidth();
+			int[] colors = new int[width * (band_chunks * TileGrid.CHUNK_SIZE + 2)];
+
+			int band;
+			while ((band = next_band()) != -1) {
+				// Read one row of apron above and below the band for the wall masks
+				int first_chunk = band * band_chunks;
+				int last_chunk  = Math.min(first_chunk + band_chunks, grid.getChunksY());
+				int start_y = Math.max(first_chunk * TileGrid.CHUNK_SIZE - 1, 0);
+				int end_y   = Math.min(last_chunk  * TileGrid.CHUNK_SIZE + 1, grid.getHeight());
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(new Rectangle(0, start_y, width, end_y - start_y));
+				BufferedImage region = reader.read(0, param);
+				region.getRGB(0, 0, width, end_y - start_y, colors, 0, width);
+
+				// Publish the band's chunks outwards from the focus
+				int focus = Math.max(0, Math.min(focus_x(), grid.getChunksX() - 1));
+				for (int chunk_y = first_chunk; chunk_y < last_chunk; ++chunk_y) {
+					for (int distance = 0; distance < grid.getChunksX(); ++distance) {
+						if (focus + distance < grid.getChunksX()) {
+							grid.fill_chunk(focus + distance, chunk_y, colors, 0, start_y, width);
+						}
+						if (distance > 0 && focus - distance >= 0) {
+							grid.fill_chunk(focus - distance, chunk_y, colors, 0, start_y, width);
+						}
+					}
+				}
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		} finally {
+			if (reader != null) {
+				close(reader);
+			}
+			synchronized (this) {
+				++finished;
+				notifyAll();
+			}
+		}
+	}
+
+	private synchronized int focus_x() {
+		return focus_x;
+	}
+
+	private ImageReader open() throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(new File(path));
+		if (stream == null) {
+			throw new IOException("Failed to open map layout: " + path);
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if (!readers.hasNext()) {
+			stream.close();
+			throw new IOException("No image reader for map layout: " + path);
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(stream, false, true);
+		return reader;
+	}
+
+	private void close(ImageReader reader) {
+		try {
+			((ImageInputStream) reader.getInput()).close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		reader.dispose();
+	}
+}
@@ -0,0 +1,352 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.display.RenderQueue;
+import com.gnarwhal.ld48.engine.model.Vao;
+import com.gnarwhal.ld48.engine.shaders.GradientShader;
+import com.gnarwhal.ld48.engine.shaders.WallShader;
+import org.lwjgl.BufferUtils;
+
+import org.joml.Matrix4f;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MapMesh {
+
+	public static class Builder {
+		private float[] vertices = new float[3 * 4096];
+		private float[] values   = new float[4096];
+		private int[]   indices  = new int[4096];
+
+		private int vertex_count, index_count;
+
+		public int vertex_count() {
+			return vertex_count;
+		}
+
+		public void vertex(float x, float y, float z, float value) {
+			if (vertex_count == values.length) {
+				vertices = Arrays.copyOf(vertices, vertices.length * 2);
+				values   = Arrays.copyOf(values,   values.length   * 2);
+			}
+			vertices[vertex_count * 3    ] = x;
+			vertices[vertex_count * 3 + 1] = y;
+			vertices[vertex_count * 3 + 2] = z;
+			values[vertex_count] = value;
+			++vertex_count;
+		}
+
+		public void index(int index) {
+			if (index_count == indices.length) {
+				indices = Arrays.copyOf(indices, indices.length * 2);
+			}
+			indices[index_count++] = index;
+		}
+
+		public void clear() {
+			vertex_count = 0;
+			index_count  = 0;
+		}
+
+		// Copies out everything appended since the last clear, ready to upload on the context's thread
+		public FloorUpload bake(int chunk) {
+			FloorUpload upload = new FloorUpload();
+			upload.chunk = chunk;
+			if (index_count > 0) {
+				upload.vertices = Arrays.copyOf(vertices, vertex_count * 3);
+				upload.values   = Arrays.copyOf(values, vertex_count);
+				upload.indices  = Arrays.copyOf(indices, index_count);
+			}
+			return upload;
+		}
+	}
+
+	// A rebuilt floor chunk waiting on the context, no indices means the chunk has no floor left
+	static class FloorUpload {
+		int chunk;
+		float[] vertices, values;
+		int[] indices;
+
+		Vao build() {
+			if (indices == null) {
+				return null;
+			}
+			Vao vao = new Vao(vertices, indices);
+			vao.addAttrib(values, 1);
+			return vao;
+		}
+	}
+
+	public static final int
+		LAYER_FLOOR = 0,
+		LAYER_WALLS = 1;
+
+	private static final float CHUNK_DIMS = TileGrid.CHUNK_SIZE * Map.TILE_DIMS;
+	private static final float WALL_OFFSET = Map.TILE_DIMS * 0.75f;
+
+	private static GradientShader floor_shader = null;
+	private static WallShader wall_shader = null;
+
+	// Every wall border shares this mesh, the shader lights its edges from the per instance mask
+	private static Vao wall_border = null;
+	private static int wall_instance_attrib;
+
+	private Map map;
+	private TileGrid grid;
+
+	// Floors are baked into one static mesh per chunk, walls keep one (x, y, mask) instance per tile.
+	// Both are rebuilt lazily whenever the chunk's version moves on
+	private Vao[] floor_meshes;
+	private float[][] wall_instances;
+	private int[] wall_counts;
+	private int[][] built_versions;
+
+	private Builder builder;
+
+	// Submitting happens wherever the frame is built, drawing on the context's thread. Anything a queued
+	// draw reads is kept per queue slot so the next frame can be built while this one draws
+	private boolean[] has_floor;
+	private ArrayList<ArrayList<FloorUpload>> floor_uploads;
+	private FloatBuffer[] visible_walls;
+	// Draws each layer queued, by slot then layer
+	private int[][] draw_calls;
+
+	// Made once so submitting never allocates
+	private RenderQueue.Command floor_command, upload_command, wall_command;
+	private Matrix4f matrix;
+
+	@SuppressWarnings("unchecked")
+	public MapMesh(Map map, TileGrid grid) {
+		if (wall_border == null) {
+			floor_shader = new GradientShader();
+			wall_shader  = new WallShader();
+
+			wall_border = new Vao(
+				new float[] {
+					0,     0,     0,
+					0.25f, 0,     0,
+					0.75f, 0,     0,
+					1,     0,     0,
+					1,     0.15f, 0,
+					1,     0.85f, 0,
+					1,     1,     0,
+					0.75f, 1,     0,
+					0.25f, 1,     0,
+					0,     1,     0,
+					0,     0.85f, 0,
+					0,     0.15f, 0,
+					0.25f, 0.15f, 0,
+					0.75f, 0.15f, 0,
+					0.75f, 0.85f, 0,
+					0.25f, 0.85f, 0
+				},
+				new int[] {
+					0, 11, 12,
+					0, 12, 1,
+					1, 12, 2,
+					12, 13, 2,
+					2, 13, 3,
+					3, 13, 4,
+					4, 13, 5,
+					13, 14, 5,
+					5, 14, 6,
+					6, 14, 7,
+					7, 14, 8,
+					14, 15, 8,
+					8, 15, 9,
+					9, 15, 10,
+					10, 15, 11,
+					15, 12, 11,
+					12, 15, 13,
+					13, 15, 14
+				}
+			);
+			wall_instance_attrib = wall_border.addDynamicAttrib(3, 1);
+		}
+
+		this.map  = map;
+		this.grid = grid;
+
+		int chunks = grid.getChunksX() * grid.getChunksY();
+		floor_meshes   = new Vao[chunks];
+		wall_instances = new float[chunks][];
+		wall_counts    = new int[chunks];
+		built_versions = new int[2][chunks];
+		draw_calls     = new int[2][2];
+
+		builder = new Builder();
+		has_floor     = new boolean[chunks];
+		floor_uploads = new ArrayList<>();
+		floor_uploads.add(new ArrayList<>());
+		floor_uploads.add(new ArrayList<>());
+		visible_walls = new FloatBuffer[] {
+			BufferUtils.createFloatBuffer(3 * 1024),
+			BufferUtils.createFloatBuffer(3 * 1024)
+		};
+
+		floor_command  = this::draw_floor;
+		upload_command = this::upload_floors;
+		wall_command   = this::draw_walls;
+		matrix = new Matrix4f();
+	}
+
+	// Culls and rebuilds the layer's visible chunks and queues their draws at the given render layer
+	public void submit(RenderQueue queue, Camera camera, int layer, int render_layer) {
+		// Culled against where the frame is actually drawn from, which trails the camera's tick position.
+		// Pass offsets move geometry up to a tile past its chunk, so pad the vertical cull by one
+		float left = camera.getRenderX();
+		float top  = camera.getRenderY();
+		int min_x = Math.max((int) Math.floor(left / CHUNK_DIMS), 0);
+		int min_y = Math.max((int) Math.floor((top - Map.TILE_DIMS) / CHUNK_DIMS), 0);
+		int max_x = Math.min((int) Math.floor((left + camera.getWidth()) / CHUNK_DIMS), grid.getChunksX() - 1);
+		int max_y = Math.min((int) Math.floor((top + camera.getHeight() + Map.TILE_DIMS) / CHUNK_DIMS), grid.getChunksY() - 1);
+
+		int slot = queue.getSlot();
+		FloatBuffer walls = visible_walls[slot];
+		if (layer == LAYER_WALLS) {
+			walls.clear();
+		}
+
+		int draws = 0;
+		for (int y = min_y; y <= max_y; ++y) {
+			for (int x = min_x; x <= max_x; ++x) {
+				int chunk   = y * grid.getChunksX() + x;
+				int version = grid.chunk_version(x, y);
+				if (version == 0) {
+					continue;
+				}
+				if (built_versions[layer][chunk] != version) {
+					if (layer == LAYER_FLOOR) {
+						rebuild_floor(x, y, slot);
+					} else {
+						rebuild_walls(x, y);
+					}
+					built_versions[layer][chunk] = version;
+				}
+
+				if (layer == LAYER_FLOOR) {
+					if (has_floor[chunk]) {
+						queue.submit(RenderQueue.key(render_layer, 1, floor_shader.getProgram(), 0, chunk), floor_command, chunk);
+						++draws;
+					}
+				} else if (wall_counts[chunk] > 0) {
+					int floats = wall_counts[chunk] * 3;
+					if (walls.remaining() < floats) {
+						FloatBuffer grown = BufferUtils.createFloatBuffer(Math.max(walls.capacity() * 2, walls.position() + floats));
+						walls.flip();
+						walls = grown.put(walls);
+						visible_walls[slot] = walls;
+					}
+					walls.put(wall_instances[chunk], 0, floats);
+				}
+			}
+		}
+
+		// Rebuilt chunks upload ahead of every floor draw
+		if (layer == LAYER_FLOOR && !floor_uploads.get(slot).isEmpty()) {
+			queue.submit(RenderQueue.key(render_layer, 0, 0, 0, 0), upload_command, slot);
+		}
+
+		// Instances draw in order, so walls still overlap the ones above them
+		if (layer == LAYER_WALLS && walls.position() > 0) {
+			walls.flip();
+			queue.submit(RenderQueue.key(render_layer, 0, wall_shader.getProgram(), 0, 0), wall_command, slot);
+			++draws;
+		}
+		draw_calls[slot][layer] = draws;
+	}
+
+	private void upload_floors(Matrix4f view, int slot) {
+		ArrayList<FloorUpload> uploads = floor_uploads.get(slot);
+		for (int i = 0; i < uploads.size(); ++i) {
+			FloorUpload upload = uploads.get(i);
+			if (floor_meshes[upload.chunk] != null) {
+				floor_meshes[upload.chunk].destroy();
+			}
+			floor_meshes[upload.chunk] = upload.build();
+		}
+		uploads.clear();
+	}
+
+	private void draw_floor(Matrix4f view, int chunk) {
+		if (floor_meshes[chunk] == null) {
+			return;
+		}
+		int x = chunk % grid.getChunksX();
+		int y = chunk / grid.getChunksX();
+		floor_shader.enable();
+		floor_shader.setColor(1, 1, 1, 1);
+		floor_shader.setMVP(matrix.set(view).translate(x * CHUNK_DIMS, y * CHUNK_DIMS, 0));
+		floor_meshes[chunk].render();
+	}
+
+	private void draw_walls(Matrix4f view, int slot) {
+		FloatBuffer walls = visible_walls[slot];
+		wall_border.updateAttrib(wall_instance_attrib, walls);
+		wall_shader.enable();
+		wall_shader.setColor(1, 1, 1, 1);
+		wall_shader.setTileDims(Map.TILE_DIMS, WALL_OFFSET);
+		wall_shader.setMVP(view);
+		wall_border.renderInstanced(walls.remaining() / 3);
+	}
+
+	// Only read a slot while no frame is being built into it
+	public int draw_calls(int slot, int layer) {
+		return draw_calls[slot][layer];
+	}
+
+	private void rebuild_floor(int chunk_x, int chunk_y, int slot) {
+		int start_x = chunk_x * TileGrid.CHUNK_SIZE;
+		int start_y = chunk_y * TileGrid.CHUNK_SIZE;
+		int end_x   = Math.min(start_x + TileGrid.CHUNK_SIZE, grid.getWidth());
+		int end_y   = Math.min(start_y + TileGrid.CHUNK_SIZE, grid.getHeight());
+
+		builder.clear();
+		for (int y = start_y; y < end_y; ++y) {
+			for (int x = start_x; x < end_x; ++x) {
+				if (grid.level(x, y) == TileGrid.LEVEL_GROUND) {
+					ArrayList<Map.RenderPass> render_passes = map.render_passes(x, y);
+					if (render_passes != null) {
+						for (int i = 0; i < render_passes.size(); ++i) {
+							render_passes.get(i).bake(builder, (x - start_x) * Map.TILE_DIMS, (y - start_y) * Map.TILE_DIMS);
+						}
+					}
+				}
+			}
+		}
+
+		int chunk = chunk_y * grid.getChunksX() + chunk_x;
+		FloorUpload upload = builder.bake(chunk);
+		has_floor[chunk] = upload.indices != null;
+		floor_uploads.get(slot).add(upload);
+	}
+
+	private void rebuild_walls(int chunk_x, int chunk_y) {
+		int start_x = chunk_x * TileGrid.CHUNK_SIZE;
+		int start_y = chunk_y * TileGrid.CHUNK_SIZE;
+		int end_x   = Math.min(start_x + TileGrid.CHUNK_SIZE, grid.getWidth());
+		int end_y   = Math.min(start_y + TileGrid.CHUNK_SIZE, grid.getHeight());
+
+		int chunk = chunk_y * grid.getChunksX() + chunk_x;
+		if (wall_instances[chunk] == null) {
+			wall_instances[chunk] = new float[TileGrid.CHUNK_SIZE * TileGrid.CHUNK_SIZE * 3];
+		}
+
+		// Rows go top to bottom so walls overlap the ones above them just like per tile drawing did
+		float[] instances = wall_instances[chunk];
+		int count = 0;
+		for (int y = start_y; y < end_y; ++y) {
+			for (int x = start_x; x < end_x; ++x) {
+				if (grid.level(x, y) == TileGrid.LEVEL_WALL) {
+					instances[count * 3    ] = x;
+					instances[count * 3 + 1] = y;
+					instances[count * 3 + 2] = grid.mask(x, y);
+					++count;
+				}
+			}
+		}
+		wall_counts[chunk] = count;
+	}
+}
@@ -0,0 +1,66 @@
+package com.gnarwhal.ld48.game;
+
+import java.util.Arrays;
+
+public class MoverBatch {
+	public int count;
+	public int max_steps;
+
+	// Collision box centres, half extents and per tick motion, one entry per mover
+	public float[] position_x, position_y;
+	public float[] half_x, half_y;
+	public float[] velocity_x, velocity_y;
+
+	// Number of wall hits each mover had during the last resolution
+	public int[] collisions;
+
+	// Total sub-steps the last resolution used across all movers
+	public int iterations;
+
+	public MoverBatch(int capacity, int max_steps) {
+		this.max_steps = max_steps;
+
+		position_x = new float[capacity];
+		position_y = new float[capacity];
+		half_x     = new float[capacity];
+		half_y     = new float[capacity];
+		velocity_x = new float[capacity];
+		velocity_y = new float[capacity];
+		collisions = new int[capacity];
+	}
+
+	// Grows the batch once it is full, so keep hold of the arrays only until the next add
+	public int add(float x, float y, float half_width, float half_height) {
+		if (count == position_x.length) {
+			grow(Math.max(position_x.length * 2, 16));
+		}
+		int index = count++;
+		position_x[index] = x;
+		position_y[index] = y;
+		half_x[index]     = half_width;
+		half_y[index]     = half_height;
+		velocity_x[index] = 0;
+		velocity_y[index] = 0;
+		collisions[index] = 0;
+		return index;
+	}
+
+	public void set_velocity(int index, float x, float y) {
+		velocity_x[index] = x;
+		velocity_y[index] = y;
+	}
+
+	private void grow(int capacity) {
+		position_x = Arrays.copyOf(position_x, capacity);
+		position_y = Arrays.copyOf(position_y, capacity);
+		half_x     = Arrays.copyOf(half_x,     capacity);
+		half_y     = Arrays.copyOf(half_y,     capacity);
+		velocity_x = Arrays.copyOf(velocity_x, capacity);
+		velocity_y = Arrays.copyOf(velocity_y, capacity);
+		collisions = Arrays.copyOf(collisions, capacity);
+	}
+
+	public int capacity() {
+		return position_x.length;
+	}
+}
@@ -1,27 +1,17 @@
 package com.gnarwhal.ld48.game;
 
 import com.gnarwhal.ld48.engine.display.Camera;
-import com.gnarwhal.ld48.engine.display.Window;
-import com.gnarwhal.ld48.engine.model.Vao;
-import com.gnarwhal.ld48.engine.shaders.PlayerShader;
-import com.gnarwhal.ld48.engine.texture.Texture;
+import com.gnarwhal.ld48.engine.input.Input;
+import com.gnarwhal.ld48.engine.particles.ParticlePool;
+import com.gnarwhal.ld48.engine.util.StateHash;
 import org.joml.Vector2f;
 import org.lwjgl.glfw.GLFW;
 
-import java.util.ArrayList;
+import java.util.SplittableRandom;
 
 import static org.lwjgl.glfw.GLFW.*;
 
 public class Player {
-	private static class Particle {
-		public Vector2f position;
-		public Vector2f velocity;
-		public float dimensions;
-
-		public float kill_hour;
-		public float clock;
-	}
-
 	public static final float PLAYER_DIMS = 64.0f;
 
 	public static final int
@@ -34,6 +24,12 @@ public class Player {
 		HOVER_FLUCTUATION = 42.0f,
 		HOVER_CYCLE_RATE  = 2.5f;
 
+	private static final float
+		PARTICLE_MIN_DIMS     = 16.0f,
+		PARTICLE_MAX_DIMS     = 28.0f,
+		PARTICLE_MIN_LIFETIME = 0.5f,
+		PARTICLE_MAX_LIFETIME = 1.0f;
+
 	private static final int
 		NO_ACTION    = 0,
 		QUICK_ATTACK = 1,
@@ -45,16 +41,13 @@ public class Player {
 	public Vector2f position;
 	public Vector2f velocity;
 
-	private static PlayerShader shader;
-	private static Vao vao;
-
-	private Texture body;
-	private Texture[] eyes;
-	private Texture particle;
+	// State as of the previous tick, rendering interpolates from here to the current tick
+	Vector2f previous_position;
+	float previous_hover_offset;
 
-	private int expression;
-	private float eye_rotation;
-	private float direction;
+	int expression;
+	float eye_rotation;
+	float direction;
 
 	private float rate_bias;
 	private float spawn_trigger;
@@ -63,7 +56,9 @@ public class Player {
 	private float particle_spawn_offset;
 	private Vector2f particle_base_target;
 	private Vector2f particle_target;
-	private ArrayList<Particle> particles;
+	ParticlePool particles;
+	// Owned by this player alone, so players on different threads never contend over it
+	private SplittableRandom random;
 
 	private int performing_action;
 	private float action_clock;
@@ -76,50 +71,21 @@ public class Player {
 
 	private Vector2f dash_direction;
 
-	public Player() {
-		if (vao == null) {
-			shader = new PlayerShader();
-			vao = new Vao(
-				new float[] {
-					 0.5f, -0.5f, 0, // Top left
-					 0.5f,  0.5f, 0, // Bottom left
-					-0.5f,  0.5f, 0, // Bottom right
-					-0.5f, -0.5f, 0  // Top right
-				},
-				new int[] {
-					0, 1, 3,
-					1, 2, 3
-				}
-			);
-			vao.addAttrib(
-				new float[] {
-					1, 0,
-					1, 1,
-					0, 1,
-					0, 0
-				},
-				2
-			);
-		}
-
-		body = new Texture("res/img/player/body.png");
-		eyes = new Texture[] {
-			new Texture("res/img/player/normal_eyes.png"),
-			new Texture("res/img/player/three_smoaks_eyes.png"),
-			new Texture("res/img/player/confused_eyes.png"),
-			new Texture("res/img/player/squint_eyes.png")
-		};
-		particle = new Texture("res/img/player/particle.png");
+	public Player(SplittableRandom random) {
+		this.random = random;
 
 		hover_offset = 0.0f;
 		base_position = new Vector2f(5 * Map.TILE_DIMS + PLAYER_DIMS * 0.5f, 8 * Map.TILE_DIMS);
 		position      = new Vector2f(base_position);
 		velocity      = new Vector2f();
 
+		previous_position = new Vector2f(position);
+
 		expression = EXPR_NORMAL;
 		direction  = 1.0f;
 
-		particles = new ArrayList<>();
+		// At most one particle spawns per tick, so this many can never all be alive at once
+		particles = new ParticlePool((int) Math.ceil(Main.tick_rate * PARTICLE_MAX_LIFETIME) + 1, PARTICLE_MAX_DIMS, PARTICLE_MIN_DIMS);
 		rate_bias = 1.0f;
 		spawn_trigger         = 0.0f;
 		target_interp_clock   = 1.0f;
@@ -132,14 +98,14 @@ public class Player {
 		return (progress - start) / (end - start);
 	}
 
-	public void move(Window window) {
+	public void move(Input input) {
 		final float RUN_VELOCITY          = Map.TILE_DIMS * 3.5f;
 		final float WALK_VELOCITY         = Map.TILE_DIMS * 1.5f;
 		final float QUICK_ATTACK_VELOCITY = Map.TILE_DIMS * 0.5f;
 		final float VERTICAL_VELOCITY_SCALAR = 0.75f;
 
 		float target_velocity = RUN_VELOCITY;
-		if (window.keyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) >= Window.BUTTON_PRESSED || window.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_B) >= Window.BUTTON_PRESSED) {
+		if (input.keyPressed(GLFW.GLFW_KEY_LEFT_CONTROL) >= Input.BUTTON_PRESSED || input.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_B) >= Input.BUTTON_PRESSED) {
 			target_velocity = WALK_VELOCITY;
 		}
 		if (performing_action == QUICK_ATTACK) {
@@ -149,24 +115,24 @@ public class Player {
 		}
 
 		Vector2f input_velocity = new Vector2f(0);
-		if (window.joystick(GLFW_JOYSTICK_1)) {
-			input_velocity.x = window.getJoystickAxis(GLFW_GAMEPAD_AXIS_LEFT_X);
-			input_velocity.y = window.getJoystickAxis(GLFW_GAMEPAD_AXIS_LEFT_Y);
+		if (input.joystick(GLFW_JOYSTICK_1)) {
+			input_velocity.x = input.getJoystickAxis(GLFW_GAMEPAD_AXIS_LEFT_X);
+			input_velocity.y = input.getJoystickAxis(GLFW_GAMEPAD_AXIS_LEFT_Y);
 			if (Math.abs(input_velocity.x) < 0.25f) { input_velocity.x = 0; }
 			if (Math.abs(input_velocity.y) < 0.25f) { input_velocity.y = 0; }
 		}
 
 		if (input_velocity.lengthSquared() == 0) {
-			if (window.keyPressed(GLFW.GLFW_KEY_A) >= Window.BUTTON_PRESSED) {
+			if (input.keyPressed(GLFW.GLFW_KEY_A) >= Input.BUTTON_PRESSED) {
 				input_velocity.x -= 1;
 			}
-			if (window.keyPressed(GLFW.GLFW_KEY_D) >= Window.BUTTON_PRESSED) {
+			if (input.keyPressed(GLFW.GLFW_KEY_D) >= Input.BUTTON_PRESSED) {
 				input_velocity.x += 1;
 			}
-			if (window.keyPressed(GLFW.GLFW_KEY_W) >= Window.BUTTON_PRESSED) {
+			if (input.keyPressed(GLFW.GLFW_KEY_W) >= Input.BUTTON_PRESSED) {
 				input_velocity.y -= 1;
 			}
-			if (window.keyPressed(GLFW.GLFW_KEY_S) >= Window.BUTTON_PRESSED) {
+			if (input.keyPressed(GLFW.GLFW_KEY_S) >= Input.BUTTON_PRESSED) {
 				input_velocity.y += 1;
 			}
 		}
@@ -179,7 +145,7 @@ public class Player {
 		if (action_clock < 0.0f) {
 			action_clock += Main.dtime;
 		} else if (performing_action == NO_ACTION) {
-			if (window.keyPressed(GLFW.GLFW_KEY_SPACE) == Window.BUTTON_PRESSED || window.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_RIGHT_BUMPER) == Window.BUTTON_PRESSED) {
+			if (input.keyPressed(GLFW.GLFW_KEY_SPACE) == Input.BUTTON_PRESSED || input.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_RIGHT_BUMPER) == Input.BUTTON_PRESSED) {
 				performing_action = QUICK_ATTACK;
 				action_clock      = 0.0f;
 				if (input_velocity.lengthSquared() != 0) {
@@ -187,7 +153,7 @@ public class Player {
 				} else {
 					quick_attack_direction = new Vector2f(direction, 0);
 				}
-			} else if (window.keyPressed(GLFW.GLFW_KEY_LEFT_SHIFT) == Window.BUTTON_PRESSED || window.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_LEFT_BUMPER) == Window.BUTTON_PRESSED) {
+			} else if (input.keyPressed(GLFW.GLFW_KEY_LEFT_SHIFT) == Input.BUTTON_PRESSED || input.controllerButtonPressed(GLFW_GAMEPAD_BUTTON_LEFT_BUMPER) == Input.BUTTON_PRESSED) {
 				performing_action = DASH;
 				action_clock      = 0.0f;
 				if (input_velocity.lengthSquared() != 0) {
@@ -232,12 +198,44 @@ public class Player {
 
 		velocity = input_velocity.mul((float) Main.dtime);
 
-		if (window.keyPressed(GLFW_KEY_Q) == Window.BUTTON_PRESSED) {
+		if (input.keyPressed(GLFW_KEY_Q) == Input.BUTTON_PRESSED) {
 			velocity.x = -400;
 			velocity.y = 0;
 		}
 	}
 
+	public void snapshot() {
+		previous_position.set(position);
+		previous_hover_offset = hover_offset;
+	}
+
+	public long state_hash(long hash) {
+		hash = StateHash.mix(hash, base_position.x);
+		hash = StateHash.mix(hash, base_position.y);
+		hash = StateHash.mix(hash, position.x);
+		hash = StateHash.mix(hash, position.y);
+		hash = StateHash.mix(hash, velocity.x);
+		hash = StateHash.mix(hash, velocity.y);
+		hash = StateHash.mix(hash, hover_offset);
+		hash = StateHash.mix(hash, hover_clock);
+		hash = StateHash.mix(hash, expression);
+		hash = StateHash.mix(hash, eye_rotation);
+		hash = StateHash.mix(hash, direction);
+		hash = StateHash.mix(hash, rate_bias);
+		hash = StateHash.mix(hash, spawn_trigger);
+		hash = StateHash.mix(hash, position_bias);
+		hash = StateHash.mix(hash, target_interp_clock);
+		hash = StateHash.mix(hash, particle_spawn_offset);
+		hash = StateHash.mix(hash, particle_target.x);
+		hash = StateHash.mix(hash, particle_target.y);
+		hash = StateHash.mix(hash, performing_action);
+		hash = StateHash.mix(hash, action_clock);
+		hash = StateHash.mix(hash, action_progress);
+		hash = StateHash.mix(hash, quick_attack_rotation);
+		hash = StateHash.mix(hash, vertical_offset);
+		return particles.hash(hash);
+	}
+
 	public void proc_collision() {}
 
 	private float lerp(float start, float end, float lerp) {
@@ -312,108 +310,47 @@ public class Player {
 
 		//////// PARTICLE SYSTEM ////////
 
-		for (int i = 0; i < particles.size(); ++i) {
-			Particle p = particles.get(i);
-			p.clock += Main.dtime;
-			if (p.clock >= p.kill_hour) {
-				particles.remove(i);
-				--i;
-			} else {
-				final float PARTICLE_MIN_DIMS = 16.0f;
-				final float PARTICLE_MAX_DIMS = 28.0f;
-
-				float interp = p.clock / p.kill_hour;
-				p.dimensions = lerp(PARTICLE_MAX_DIMS, PARTICLE_MIN_DIMS, interp);
-				p.position.add(p.velocity.mul((float) Main.dtime, new Vector2f()));
-			}
-		}
+		// Particles are integrated by the ParticleSystem they are registered with
 
 		final float TURN_RATE = 0.7f;
 		target_interp_clock = Math.min(target_interp_clock + (float) Main.dtime / TURN_RATE, 1);
 
 		spawn_trigger -= Main.dtime;
 		if (spawn_trigger < 0) {
-			Particle p = new Particle();
-
-			final float PARTICLE_MIN_LIFETIME = 0.5f;
-			final float PARTICLE_MAX_LIFETIME = 1.0f;
-			p.kill_hour = lerp(PARTICLE_MIN_LIFETIME, PARTICLE_MAX_LIFETIME, (float) Math.random());
+			float lifetime = lerp(PARTICLE_MIN_LIFETIME, PARTICLE_MAX_LIFETIME, (float) random.nextDouble());
 
-			Vector2f spawn_position = new Vector2f(position).add(0, hover_offset);
-			position_bias = (4.5f + direction * 0.5f + (float) Math.random() * 2 - 1 + particle_spawn_offset) % 4;
+			float spawn_x = position.x;
+			float spawn_y = position.y + hover_offset;
+			position_bias = (4.5f + direction * 0.5f + (float) random.nextDouble() * 2 - 1 + particle_spawn_offset) % 4;
 			if (0 <= position_bias && position_bias < 1) {
-				spawn_position.add(
-					-PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f),
-					-PLAYER_DIMS * 0.4f
-				);
+				spawn_x += -PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f);
+				spawn_y += -PLAYER_DIMS * 0.4f;
 			} else if (1 <= position_bias && position_bias < 2) {
 				position_bias -= 1;
-				spawn_position.add(
-					-PLAYER_DIMS * 0.4f,
-					 PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f)
-				);
+				spawn_x += -PLAYER_DIMS * 0.4f;
+				spawn_y +=  PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f);
 			} else if (2 <= position_bias && position_bias < 3) {
 				position_bias -= 2;
-				spawn_position.add(
-					PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f),
-					PLAYER_DIMS * 0.4f
-				);
+				spawn_x += PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f);
+				spawn_y += PLAYER_DIMS * 0.4f;
 			} else {
 				position_bias -= 3;
-				spawn_position.add(
-					 PLAYER_DIMS * 0.4f,
-					-PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f)
-				);
+				spawn_x +=  PLAYER_DIMS * 0.4f;
+				spawn_y += -PLAYER_DIMS * 0.4f * (position_bias * 2.0f - 1.0f);
 			}
-			p.position = spawn_position;
 
-			p.velocity = new Vector2f(particle_target).mul((2 * target_interp_clock - 1) * direction, 1).add(position).sub(spawn_position).add(velocity.mul(0.1f, new Vector2f()));
-
-			particles.add(p);
+			float spread = (2 * target_interp_clock - 1) * direction;
+			particles.spawn(
+				spawn_x,
+				spawn_y,
+				particle_target.x * spread + position.x - spawn_x + velocity.x * 0.1f,
+				particle_target.y          + position.y - spawn_y + velocity.y * 0.1f,
+				0,
+				lifetime
+			);
 
 			final float BASE_SPAWN_RATE = 0.15f;
 			spawn_trigger = BASE_SPAWN_RATE * rate_bias;
 		}
 	}
-
-	public void render(Camera camera) {
-		shader.enable();
-
-		particle.bind();
-		for (int i = 0; i < particles.size(); ++i) {
-			Particle p = particles.get(i);
-			shader.setMVP(
-				camera
-					.getMatrix()
-					.translate(
-						p.position.x,
-						p.position.y,
-						0
-					)
-					.scaleXY(
-						p.dimensions,
-						p.dimensions
-					)
-			);
-			vao.render();
-		}
-
-		shader.setMVP(
-			camera
-				.getMatrix()
-				.translate(
-					position.x,
-					position.y + hover_offset,
-					0
-				)
-				.scaleXY(direction * PLAYER_DIMS, PLAYER_DIMS));
-
-		shader.setRotation(0);
-		body.bind();
-		vao.render();
-
-		shader.setRotation(eye_rotation);
-		eyes[expression].bind();
-		vao.render();
-	}
 }
@@ -0,0 +1,75 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.assets.Asset;
+import com.gnarwhal.ld48.engine.assets.AssetManager;
+import com.gnarwhal.ld48.engine.display.SpriteBatch;
+import com.gnarwhal.ld48.engine.particles.ParticlePool;
+import com.gnarwhal.ld48.engine.texture.TextureAtlas;
+
+public class PlayerRenderer {
+
+	public static final int
+		LAYER_PARTICLES = 0,
+		LAYER_BODY      = 1,
+		LAYER_EYES      = 2;
+
+	// The player is the first thing on screen
+	public static final int ASSET_PRIORITY = 100;
+
+	private Asset<TextureAtlas> atlas;
+	private TextureAtlas.Region body;
+	private TextureAtlas.Region[] eyes;
+	private TextureAtlas.Region particle;
+
+	public PlayerRenderer(AssetManager assets) {
+		// One page for the whole set, so the player and its particles batch into a single draw
+		atlas = assets.load("res/img/player", ASSET_PRIORITY, TextureAtlas.LOADER);
+	}
+
+	private void resolve(TextureAtlas atlas) {
+		body = atlas.get("body");
+		eyes = new TextureAtlas.Region[] {
+			atlas.get("normal_eyes"),
+			atlas.get("three_smoaks_eyes"),
+			atlas.get("confused_eyes"),
+			atlas.get("squint_eyes")
+		};
+		particle = atlas.get("particle");
+	}
+
+	private float lerp(float start, float end, float lerp) {
+		return start + (end - start) * lerp;
+	}
+
+	public void render(Snapshot snapshot, SpriteBatch sprites, float alpha) {
+		// Nothing to draw with until the atlas has been uploaded
+		if (body == null) {
+			if (!atlas.isReady()) {
+				return;
+			}
+			resolve(atlas.get());
+		}
+
+		// Particles only ever move in a straight line and keep no previous position, so wind them back
+		// along their velocity to the same point between the last two ticks the body is drawn at
+		float rewind = snapshot.dtime * (1 - alpha);
+
+		ParticlePool particles = snapshot.particles;
+		for (int i = 0; i < particles.count(); ++i) {
+			sprites.draw(
+				particle,
+				LAYER_PARTICLES,
+				particles.x[i] - particles.velocityX[i] * rewind,
+				particles.y[i] - particles.velocityY[i] * rewind,
+				particles.size[i],
+				particles.size[i],
+				0
+			);
+		}
+
+		float x = lerp(snapshot.previous_x, snapshot.x, alpha);
+		float y = lerp(snapshot.previous_y, snapshot.y, alpha) + lerp(snapshot.previous_hover_offset, snapshot.hover_offset, alpha);
+		sprites.draw(body, LAYER_BODY, x, y, snapshot.direction * Player.PLAYER_DIMS, Player.PLAYER_DIMS, 0);
+		sprites.draw(eyes[snapshot.expression], LAYER_EYES, x, y, snapshot.direction * Player.PLAYER_DIMS, Player.PLAYER_DIMS, snapshot.eye_rotation);
+	}
+}
@@ -0,0 +1,315 @@
+package com.gnarwhal.ld48.game;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/*
+	Named timing scopes around the phases of a tick and a frame, plus counts taken once a tick or
+	frame. While enabled every scope feeds a rolling histogram covering the last WINDOW_SECONDS
+	seconds and, while a flight recording is running, emits a Scope event. Counts work the same way
+	with Count events, and every scope keeps a running total for the per tick figures Headless and
+	Replay print. While disabled a scope is a single volatile read.
+
+	Each scope and count is only ever recorded from one thread, the simulation's, the render
+	prepare worker's or the window's, so the start time and pending event need no guarding. The
+	histograms are read from the window's thread once a second by roll, which is all the locking
+	there is. SessionHost ticks many panels at once and so must leave it disabled.
+*/
+public class Profiler {
+
+	public static final String[] SCOPES = {
+		"Window.update",
+		"Player.move",
+		"Map.check_collisions",
+		"ParticleSystem.update",
+		"Player.update",
+		"Map.stream",
+		"Camera.update",
+		"render_floor",
+		"Player.render",
+		"render_walls",
+		"execute",
+		"swap"
+	};
+
+	public static final int
+		SCOPE_WINDOW_UPDATE  = 0,
+		SCOPE_MOVE           = 1,
+		SCOPE_COLLISIONS     = 2,
+		SCOPE_PARTICLES      = 3,
+		SCOPE_PLAYER_UPDATE  = 4,
+		SCOPE_STREAM         = 5,
+		SCOPE_CAMERA_UPDATE  = 6,
+		SCOPE_RENDER_FLOOR   = 7,
+		SCOPE_PLAYER_RENDER  = 8,
+		SCOPE_RENDER_WALLS   = 9,
+		SCOPE_EXECUTE        = 10,
+		SCOPE_SWAP           = 11;
+
+	// The scopes GamePanel.update runs through, in order
+	public static final int[] TICK_SCOPES = {
+		SCOPE_MOVE,
+		SCOPE_COLLISIONS,
+		SCOPE_PARTICLES,
+		SCOPE_PLAYER_UPDATE,
+		SCOPE_STREAM
+	};
+
+	public static final String[] COUNTERS = { "draws", "particles", "collision_iterations" };
+
+	public static final int
+		COUNTER_DRAWS                = 0,
+		COUNTER_PARTICLES            = 1,
+		COUNTER_COLLISION_ITERATIONS = 2;
+
+	// Seconds of history the percentiles cover, kept as one histogram a second
+	public static final int WINDOW_SECONDS = 10;
+
+	@Name("com.gnarwhal.ld48.Scope")
+	@Label("Scope")
+	@Category("Ludum Dare 48")
+	@Description("One pass through a named phase of a tick or frame")
+	@StackTrace(false)
+	public static class ScopeEvent extends Event {
+		@Label("Scope")
+		public String scope;
+	}
+
+	@Name("com.gnarwhal.ld48.Count")
+	@Label("Count")
+	@Category("Ludum Dare 48")
+	@Description("A per tick or per frame count")
+	@StackTrace(false)
+	public static class CountEvent extends Event {
+		@Label("Counter")
+		public String counter;
+
+		@Label("Value")
+		public long value;
+	}
+
+	private static class Track {
+		private String name;
+		private LatencyHistogram[] seconds;
+		private int current;
+		private long total;
+
+		// Owning thread only
+		private long start;
+		private ScopeEvent event;
+
+		// Window's thread only, as of the last roll
+		private LatencyHistogram window;
+		private long p50, p99, max, samples;
+
+		private Track(String name) {
+			this.name = name;
+			seconds = new LatencyHistogram[WINDOW_SECONDS];
+			for (int i = 0; i < WINDOW_SECONDS; ++i) {
+				seconds[i] = new LatencyHistogram();
+			}
+			window = new LatencyHistogram();
+		}
+
+		private synchronized void record(long value) {
+			seconds[current].record(value);
+			total += value;
+		}
+
+		private synchronized long total() {
+			return total;
+		}
+
+		private synchronized void reset_total() {
+			total = 0;
+		}
+
+		// Sums the window then starts a new second in place of the oldest
+		private synchronized void roll() {
+			window.clear();
+			for (int i = 0; i < WINDOW_SECONDS; ++i) {
+				window.add(seconds[i]);
+			}
+			current = (current + 1) % WINDOW_SECONDS;
+			seconds[current].clear();
+
+			p50     = window.percentile(0.5);
+			p99     = window.percentile(0.99);
+			max     = window.max();
+			samples = window.count();
+		}
+	}
+
+	private static final EventType SCOPE_EVENT = EventType.getEventType(ScopeEvent.class);
+	private static final EventType COUNT_EVENT = EventType.getEventType(CountEvent.class);
+
+	private static final Track[] scopes   = new Track[SCOPES.length];
+	private static final Track[] counters = new Track[COUNTERS.length];
+
+	private static volatile boolean enabled;
+
+	static {
+		for (int i = 0; i < SCOPES.length; ++i) {
+			scopes[i] = new Track(SCOPES[i]);
+		}
+		for (int i = 0; i < COUNTERS.length; ++i) {
+			counters[i] = new Track(COUNTERS[i]);
+		}
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Profiler.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void begin(int scope) {
+		if (!enabled) {
+			return;
+		}
+		Track track = scopes[scope];
+		if (SCOPE_EVENT.isEnabled()) {
+			track.event = new ScopeEvent();
+			track.event.begin();
+		}
+		track.start = System.nanoTime();
+	}
+
+	public static void end(int scope) {
+		if (!enabled) {
+			return;
+		}
+		long end = System.nanoTime();
+		Track track = scopes[scope];
+		// Enabled after this scope began
+		if (track.start == 0) {
+			return;
+		}
+		track.record(end - track.start);
+		track.start = 0;
+
+		ScopeEvent event = track.event;
+		if (event != null) {
+			event.end();
+			event.scope = track.name;
+			event.commit();
+			track.event = null;
+		}
+	}
+
+	public static void count(int counter, long value) {
+		if (!enabled) {
+			return;
+		}
+		Track track = counters[counter];
+		track.record(value);
+		if (COUNT_EVENT.isEnabled()) {
+			CountEvent event = new CountEvent();
+			event.counter = track.name;
+			event.value   = value;
+			event.commit();
+		}
+	}
+
+	// Call once a second from the window's thread, updates the percentiles everything below reports
+	public static void roll() {
+		for (Track track : scopes) {
+			track.roll();
+		}
+		for (Track track : counters) {
+			track.roll();
+		}
+	}
+
+	// Nanoseconds for scopes, plain counts for counters
+	public static long scope_p50(int scope) {
+		return scopes[scope].p50;
+	}
+
+	public static long scope_p99(int scope) {
+		return scopes[scope].p99;
+	}
+
+	public static long scope_max(int scope) {
+		return scopes[scope].max;
+	}
+
+	public static long counter_p50(int counter) {
+		return counters[counter].p50;
+	}
+
+	public static long counter_p99(int counter) {
+		return counters[counter].p99;
+	}
+
+	public static long counter_max(int counter) {
+		return counters[counter].max;
+	}
+
+	// Everything the scope recorded since the last reset_totals, unlike the above this needs no roll
+	public static long scope_total(int scope) {
+		return scopes[scope].total();
+	}
+
+	public static void reset_totals() {
+		for (Track track : scopes) {
+			track.reset_total();
+		}
+		for (Track track : counters) {
+			track.reset_total();
+		}
+	}
+
+	public static String report() {
+		StringBuilder report = new StringBuilder(String.format("profile over %d s, p50 / p99 / max:", WINDOW_SECONDS));
+		for (Track track : scopes) {
+			report.append(String.format("%n  %-22s %8.3f / %8.3f / %8.3f ms", track.name, track.p50 / 1e6, track.p99 / 1e6, track.max / 1e6));
+		}
+		for (Track track : counters) {
+			report.append(String.format("%n  %-22s %8d / %8d / %8d", track.name, track.p50, track.p99, track.max));
+		}
+		return report.toString();
+	}
+
+	// Appends the percentiles as of the last roll to a CSV file, writing the header if it is new
+	public static class CsvDump {
+
+		private PrintWriter out;
+		private long start;
+
+		public CsvDump(String path) throws IOException {
+			out = new PrintWriter(new FileWriter(path, true));
+			if (new File(path).length() == 0) {
+				out.println("time_s,name,kind,samples,p50,p99,max");
+			}
+			start = System.nanoTime();
+		}
+
+		public void write() {
+			double time = (System.nanoTime() - start) / 1e9;
+			for (Track track : scopes) {
+				out.printf("%.3f,%s,scope_ns,%d,%d,%d,%d%n", time, track.name, track.samples, track.p50, track.p99, track.max);
+			}
+			for (Track track : counters) {
+				out.printf("%.3f,%s,count,%d,%d,%d,%d%n", time, track.name, track.samples, track.p50, track.p99, track.max);
+			}
+			out.flush();
+		}
+
+		public void close() {
+			out.close();
+		}
+	}
+}
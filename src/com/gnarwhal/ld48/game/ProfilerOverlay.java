@@ -0,0 +1,102 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.display.Window;
+import com.gnarwhal.ld48.engine.model.Vao;
+import com.gnarwhal.ld48.engine.shaders.GradientShader;
+import org.joml.Matrix4f;
+
+// Draws the profiler's percentiles as bars in the top left of the screen, one row per scope in the
+// order of Profiler.SCOPES and then one per counter. There is no text rendering, so rows are told
+// apart by colour and the names are in the CSV and --stats output. A scope's track is one frame at the
+// monitor's refresh rate, with the p50 as a solid bar, the p99 as a faint one behind it and the max
+// as a tick. Counters are scaled to their own max over the window
+public class ProfilerOverlay {
+
+	private static final float
+		LEFT       = 24,
+		TOP        = 24,
+		WIDTH      = 480,
+		ROW_HEIGHT = 14,
+		ROW_GAP    = 6,
+		TICK_WIDTH = 2;
+
+	private static final float[][] COLORS = {
+		{ 0.90f, 0.35f, 0.35f },
+		{ 0.95f, 0.65f, 0.30f },
+		{ 0.95f, 0.90f, 0.35f },
+		{ 0.55f, 0.85f, 0.35f },
+		{ 0.35f, 0.85f, 0.65f },
+		{ 0.35f, 0.75f, 0.95f },
+		{ 0.40f, 0.50f, 0.95f },
+		{ 0.65f, 0.40f, 0.95f },
+		{ 0.90f, 0.40f, 0.80f },
+		{ 0.60f, 0.45f, 0.30f },
+		{ 0.30f, 0.55f, 0.55f },
+		{ 0.80f, 0.80f, 0.80f }
+	};
+
+	private GradientShader shader;
+	private Vao quad;
+	private Matrix4f screen, matrix;
+
+	public ProfilerOverlay(float width, float height) {
+		shader = new GradientShader();
+		quad = new Vao(
+			new float[] {
+				1, 0, 0,
+				1, 1, 0,
+				0, 1, 0,
+				0, 0, 0
+			},
+			new int[] {
+				0, 1, 3,
+				1, 2, 3
+			}
+		);
+		quad.addAttrib(new float[] { 1, 1, 1, 1 }, 1);
+
+		Camera camera = new Camera(width, height);
+		camera.update();
+		screen = camera.getMatrix();
+		matrix = new Matrix4f();
+	}
+
+	public void render() {
+		float budget = 1e9f / Window.REFRESH_RATE;
+		float y = TOP;
+		for (int i = 0; i < Profiler.SCOPES.length; ++i) {
+			float[] color = COLORS[i % COLORS.length];
+			row(y, color, Profiler.scope_p50(i) / budget, Profiler.scope_p99(i) / budget, Profiler.scope_max(i) / budget);
+			y += ROW_HEIGHT + ROW_GAP;
+		}
+		for (int i = 0; i < Profiler.COUNTERS.length; ++i) {
+			float max = Math.max(Profiler.counter_max(i), 1);
+			row(y, COLORS[COLORS.length - 1], Profiler.counter_p50(i) / max, Profiler.counter_p99(i) / max, 1);
+			y += ROW_HEIGHT + ROW_GAP;
+		}
+	}
+
+	// Fractions of the track's width, clipped to it
+	private void row(float y, float[] color, float p50, float p99, float max) {
+		bar(LEFT, y, WIDTH, ROW_HEIGHT, 0, 0, 0, 0.5f);
+		bar(LEFT, y, WIDTH * Math.min(p99, 1), ROW_HEIGHT, color[0], color[1], color[2], 0.35f);
+		bar(LEFT, y, WIDTH * Math.min(p50, 1), ROW_HEIGHT, color[0], color[1], color[2], 1);
+		bar(LEFT + WIDTH * Math.min(max, 1) - TICK_WIDTH, y, TICK_WIDTH, ROW_HEIGHT, 1, 1, 1, 1);
+	}
+
+	private void bar(float x, float y, float width, float height, float r, float g, float b, float a) {
+		if (width <= 0) {
+			return;
+		}
+		shader.enable();
+		shader.setColor(r, g, b, a);
+		shader.setMVP(matrix.set(screen).translate(x, y, 0).scale(width, height, 1));
+		quad.render();
+	}
+
+	public void destroy() {
+		quad.destroy();
+		shader.destroy();
+	}
+}
@@ -0,0 +1,60 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.input.InputReplay;
+
+import java.io.IOException;
+
+// Plays a recording made with Main --record back with no window, as fast as the CPU allows, and
+// checks the simulation ends in the recorded state: Replay <recording> [runs]
+public class Replay {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: Replay <recording> [runs]");
+			System.exit(2);
+		}
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+		TileGrid grid = Map.load_grid();
+		boolean diverged = false;
+		Profiler.setEnabled(true);
+		for (int run = 0; run < runs; ++run) {
+			InputReplay input = new InputReplay(args[0]);
+			Main.tick_rate = input.getTickRate();
+			Main.adtime = Main.tick_length(Main.tick_rate);
+			Main.dtime  = Main.adtime;
+
+			Camera camera = new Camera(1920, 1080);
+			GamePanel panel = new GamePanel(grid, input.getSeed());
+
+			Profiler.reset_totals();
+			long ticks = 0;
+			long start = System.nanoTime();
+			while (!input.finished()) {
+				camera.snapshot();
+				input.update();
+				panel.update(input, camera);
+				camera.update();
+				++ticks;
+			}
+			long elapsed = System.nanoTime() - start;
+
+			long hash = panel.state_hash();
+			boolean match = ticks == input.getRecordedTicks() && hash == input.getRecordedHash();
+			diverged |= !match;
+			System.out.printf(
+				"%d ticks in %.1f ms, %.0f ticks/s, state %016x %s%n",
+				ticks, elapsed / 1e6, ticks * 1e9 / elapsed, hash,
+				match ? "matches" : String.format("DIVERGED from %016x after %d ticks", input.getRecordedHash(), input.getRecordedTicks())
+			);
+
+			for (int scope : Profiler.TICK_SCOPES) {
+				System.out.printf("  %-22s %8.1f ns/tick%n", Profiler.SCOPES[scope], (double) Profiler.scope_total(scope) / ticks);
+			}
+		}
+		if (diverged) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.input.ScriptedInput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs many independent headless game sessions in one process on a shared worker pool. Every
+// session ticks at the host's rate on its own clock, so one slow session never holds up the rest:
+// SessionHost [--max-sessions N] [--step-seconds N] [--workers N] [--tick-rate N] [--budget-us N]
+public class SessionHost {
+
+	// Ticks a session may run back to back before it goes back in the queue behind the others
+	private static final int MAX_CATCH_UP_TICKS = 5;
+
+	// Ticks a session may fall behind before the oldest are dropped, which slows its game time down
+	private static final int MAX_BACKLOG_TICKS = 30;
+
+	// Share of the pool's time the host may be busy before it stops admitting sessions
+	private static final double MAX_LOAD = 0.85;
+
+	public class Session implements Runnable {
+		private GamePanel panel;
+		private Camera camera;
+		private ScriptedInput input;
+		// Recorded so any one session can be replayed on its own
+		private long seed;
+
+		// Whether the session is queued or running on the pool
+		private AtomicBoolean scheduled;
+		// When the next tick is due, lined up with the host clock when the session is first woken
+		private long due;
+
+		private long ticks, shed_ticks, overruns;
+		// Time from a tick falling due to it finishing, so queueing delay counts against the host
+		private LatencyHistogram latency;
+
+		private Session(ScriptedInput input, long seed) {
+			panel  = new GamePanel(grid, seed);
+			camera = new Camera(1920, 1080);
+			this.input = input;
+			this.seed  = seed;
+
+			scheduled = new AtomicBoolean();
+			latency = new LatencyHistogram();
+		}
+
+		public void run() {
+			long now = System.nanoTime();
+			for (int i = 0; i < MAX_CATCH_UP_TICKS && now >= due; ++i) {
+				long shed = Math.max((now - due) / tick_period - MAX_BACKLOG_TICKS, 0);
+				due += shed * tick_period;
+
+				long start = System.nanoTime();
+				input.update();
+				camera.snapshot();
+				panel.update(input, camera);
+				camera.update();
+				now = System.nanoTime();
+
+				busy.addAndGet(now - start);
+				synchronized (this) {
+					latency.record(now - due);
+					++ticks;
+					shed_ticks += shed;
+					if (now - start > tick_budget) {
+						++overruns;
+					}
+				}
+				due += tick_period;
+			}
+			scheduled.set(false);
+		}
+
+		public long getSeed() {
+			return seed;
+		}
+
+		// Moves the stats gathered since the last drain into the given totals
+		private synchronized void drain(LatencyHistogram total, long[] counts) {
+			total.add(latency);
+			latency.clear();
+			counts[0] += ticks;
+			counts[1] += shed_ticks;
+			counts[2] += overruns;
+			ticks      = 0;
+			shed_ticks = 0;
+			overruns   = 0;
+		}
+	}
+
+	private TileGrid grid;
+	private ForkJoinPool pool;
+	private int workers;
+
+	private long tick_period;
+	private long tick_budget;
+
+	private ArrayList<Session> sessions;
+	private Thread clock;
+	private volatile boolean running;
+
+	// Nanoseconds the pool has spent ticking, for admission control
+	private AtomicLong busy;
+	private long load_busy, load_time;
+	private double load;
+
+	public SessionHost(TileGrid grid, int workers, int tick_rate, long tick_budget) {
+		this.grid = grid;
+		this.workers = workers;
+		this.tick_budget = tick_budget;
+		tick_period = 1000000000L / tick_rate;
+
+		// Async mode keeps the queue first in first out, which suits tasks that are never joined
+		pool = new ForkJoinPool(workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		sessions = new ArrayList<>();
+		busy = new AtomicLong();
+		load_time = System.nanoTime();
+	}
+
+	// Returns null and sheds the session if the host is already too busy to take it on
+	public synchronized Session add_session(ScriptedInput input, long seed) {
+		if (load > MAX_LOAD) {
+			return null;
+		}
+		Session session = new Session(input, seed);
+		sessions.add(session);
+		return session;
+	}
+
+	public synchronized int session_count() {
+		return sessions.size();
+	}
+
+	public void start() {
+		running = true;
+		clock = new Thread(this::wake, "session-host-clock");
+		clock.setDaemon(true);
+		clock.start();
+	}
+
+	public void stop() {
+		running = false;
+		try {
+			clock.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Hands every session that isn't already queued to the pool once per tick
+	private void wake() {
+		long next = System.nanoTime();
+		while (running) {
+			synchronized (this) {
+				for (int i = 0; i < sessions.size(); ++i) {
+					Session session = sessions.get(i);
+					if (session.scheduled.compareAndSet(false, true)) {
+						if (session.due == 0) {
+							session.due = next;
+						}
+						pool.execute(session);
+					}
+				}
+			}
+
+			// Never wake early, sessions would find their tick not quite due and wait a whole period
+			next += tick_period;
+			long now = System.nanoTime();
+			if (now > next) {
+				next = now;
+			}
+			while (now < next) {
+				LockSupport.parkNanos(next - now);
+				now = System.nanoTime();
+			}
+		}
+	}
+
+	// Collects everything recorded since the last call: ticks, shed ticks, budget overruns
+	public synchronized long[] drain(LatencyHistogram total) {
+		long[] counts = new long[3];
+		for (int i = 0; i < sessions.size(); ++i) {
+			sessions.get(i).drain(total, counts);
+		}
+
+		long now = System.nanoTime();
+		long spent = busy.get();
+		load = (double) (spent - load_busy) / ((now - load_time) * workers);
+		load_busy = spent;
+		load_time = now;
+		return counts;
+	}
+
+	public synchronized double load() {
+		return load;
+	}
+
+	// Doubles the session count every step until the host turns sessions away, reporting each step
+	public static void main(String[] args) throws IOException {
+		int    max_sessions = 4096;
+		double step_seconds = 5;
+		int    workers      = Runtime.getRuntime().availableProcessors();
+		long   budget       = 2000000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--max-sessions")) {
+				max_sessions = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("--step-seconds")) {
+				step_seconds = Double.parseDouble(args[i + 1]);
+			} else if (args[i].equals("--workers")) {
+				workers = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("--tick-rate")) {
+				Main.tick_rate = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("--budget-us")) {
+				budget = Long.parseLong(args[i + 1]) * 1000;
+			}
+		}
+
+		// Every session steps by the same fixed amount, which nothing writes once the host is running
+		Main.adtime = Main.tick_length(Main.tick_rate);
+		Main.dtime  = Main.adtime;
+
+		TileGrid grid = Map.load_grid();
+		SessionHost host = new SessionHost(grid, workers, Main.tick_rate, budget);
+		int script_ticks = (int) (step_seconds * Main.tick_rate * 32);
+
+		System.out.printf("%d workers, %d Hz, %.0f us budget%n", workers, Main.tick_rate, budget / 1e3);
+		System.out.printf("%9s %12s %10s %10s %10s %8s %9s %6s%n", "sessions", "ticks/s", "p50 us", "p99 us", "max us", "shed", "overruns", "load");
+
+		host.start();
+		LatencyHistogram latency = new LatencyHistogram();
+		long seed = 0;
+		for (int target = 1; target <= max_sessions; target *= 2) {
+			boolean refused = false;
+			while (host.session_count() < target) {
+				if (host.add_session(Headless.script(seed, script_ticks), seed++) == null) {
+					refused = true;
+					break;
+				}
+			}
+
+			// Let the new sessions settle in before measuring
+			sleep(step_seconds * 0.2);
+			host.drain(latency);
+			latency.clear();
+
+			long start = System.nanoTime();
+			sleep(step_seconds);
+			long[] counts = host.drain(latency);
+			double elapsed = (System.nanoTime() - start) / 1e9;
+
+			System.out.printf("%9d %12.0f %10.1f %10.1f %10.1f %8d %9d %5.0f%%%n",
+				host.session_count(),
+				counts[0] / elapsed,
+				latency.percentile(0.50) / 1e3,
+				latency.percentile(0.99) / 1e3,
+				latency.max() / 1e3,
+				counts[1],
+				counts[2],
+				host.load() * 100
+			);
+			latency.clear();
+
+			if (refused) {
+				System.out.println("Host is at capacity, stopped admitting sessions");
+				break;
+			}
+		}
+		host.stop();
+	}
+
+	private static void sleep(double seconds) {
+		try {
+			Thread.sleep((long) (seconds * 1000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
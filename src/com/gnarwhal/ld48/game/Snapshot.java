@@ -0,0 +1,67 @@
+package com.gnarwhal.ld48.game;
+
+import com.gnarwhal.ld48.engine.display.Camera;
+import com.gnarwhal.ld48.engine.particles.ParticlePool;
+
+// Everything drawing a frame needs from the simulation, as of the end of one tick. The simulation
+// thread fills one and hands it to the render thread through a TripleBuffer, after which nothing
+// writes to it until the render thread hands it back
+public class Snapshot {
+
+	// When the tick was due and how long ticks last, in System.nanoTime nanoseconds
+	public long time;
+	public long tick_length;
+	public float dtime;
+
+	public float previous_x, previous_y;
+	public float x, y;
+	public float previous_hover_offset, hover_offset;
+	public float direction;
+	public int expression;
+	public float eye_rotation;
+	public ParticlePool particles;
+
+	public float camera_previous_x, camera_previous_y;
+	public float camera_x, camera_y;
+	public float camera_rotation;
+
+	public void capture(Player player, Camera camera, long time, long tick_length) {
+		this.time        = time;
+		this.tick_length = tick_length;
+		dtime = (float) Main.dtime;
+
+		previous_x            = player.previous_position.x;
+		previous_y            = player.previous_position.y;
+		x                     = player.position.x;
+		y                     = player.position.y;
+		previous_hover_offset = player.previous_hover_offset;
+		hover_offset          = player.hover_offset;
+		direction             = player.direction;
+		expression            = player.expression;
+		eye_rotation          = player.eye_rotation;
+		if (particles == null) {
+			particles = new ParticlePool(player.particles.capacity(), 0, 0);
+		}
+		particles.copy(player.particles);
+
+		camera_previous_x = camera.getPreviousX();
+		camera_previous_y = camera.getPreviousY();
+		camera_x          = camera.getX();
+		camera_y          = camera.getY();
+		camera_rotation   = camera.getRotation();
+	}
+
+	// How far a frame drawn at now sits between this tick and the next
+	public float alpha(long now) {
+		return Math.max(0, Math.min((float) (now - time) / tick_length, 1));
+	}
+
+	// Places a camera the render thread owns where the simulation's camera was, between its last two ticks
+	public void apply(Camera camera, float alpha) {
+		camera.setPosition(camera_previous_x, camera_previous_y);
+		camera.snapshot();
+		camera.setPosition(camera_x, camera_y);
+		camera.setRotation(camera_rotation);
+		camera.interpolate(alpha);
+	}
+}
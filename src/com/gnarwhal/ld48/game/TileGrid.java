@@ -0,0 +1,207 @@
+package com.gnarwhal.ld48.game;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class TileGrid {
+	public static final byte
+		LEVEL_GROUND = 0,
+		LEVEL_WALL   = 1,
+		LEVEL_EMPTY  = 2;
+
+	public static final int
+		WALL_COLOR   = 0xFF000000,
+		GROUND_COLOR = 0xFFFFFFFF;
+
+	public static final int CHUNK_SIZE = 32;
+
+	private int width, height;
+	private int chunks_x, chunks_y;
+	private int row_longs;
+	// Bumped every time a chunk's tiles are written, zero until the chunk first loads
+	private AtomicIntegerArray versions;
+
+	// Row-major, one entry per tile: index = y * width + x. Buffers rather than arrays so a compiled
+	// map file can back the grid straight from its mapping
+	private ByteBuffer level;
+	// Walls store their 8-neighbour ground mask, ground stores 1 when a wall sits directly above it
+	private ByteBuffer mask;
+	// One bit per wall tile for collision queries. Each row starts on a fresh long, so bands of rows
+	// filled on different threads never share a word: index = y * row_longs + x / 64
+	private LongBuffer solid;
+
+	public TileGrid(int width, int height) {
+		byte[] levels = new byte[width * height];
+		long[] solids = new long[solid_longs(width, height)];
+
+		// Until its chunk arrives a tile is a solid, borderless wall which renders the same as the clear colour
+		Arrays.fill(levels, LEVEL_WALL);
+		Arrays.fill(solids, -1L);
+
+		init(width, height, ByteBuffer.wrap(levels), ByteBuffer.wrap(new byte[width * height]), LongBuffer.wrap(solids));
+	}
+
+	// Wraps already built tile data, every chunk counts as loaded
+	public TileGrid(int width, int height, ByteBuffer level, ByteBuffer mask, LongBuffer solid) {
+		init(width, height, level, mask, solid);
+		for (int i = 0; i < versions.length(); ++i) {
+			versions.set(i, 1);
+		}
+	}
+
+	private void init(int width, int height, ByteBuffer level, ByteBuffer mask, LongBuffer solid) {
+		this.width  = width;
+		this.height = height;
+		this.level  = level;
+		this.mask   = mask;
+		this.solid  = solid;
+
+		chunks_x  = (width  + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunks_y  = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		row_longs = (width + 63) >>> 6;
+		versions  = new AtomicIntegerArray(chunks_x * chunks_y);
+	}
+
+	public static int solid_longs(int width, int height) {
+		return ((width + 63) >>> 6) * height;
+	}
+
+	public static TileGrid load(String path) throws IOException {
+		BufferedImage layout = ImageIO.read(new File(path));
+		TileGrid grid = new TileGrid(layout.getWidth(), layout.getHeight());
+
+		int[] colors = layout.getRGB(0, 0, grid.width, grid.height, null, 0, grid.width);
+		for (int y = 0; y < grid.chunks_y; ++y) {
+			for (int x = 0; x < grid.chunks_x; ++x) {
+				grid.fill_chunk(x, y, colors, 0, 0, grid.width);
+			}
+		}
+
+		return grid;
+	}
+
+	// Fills one chunk from a block of layout colours that reaches one tile past the chunk on every side
+	// inside the grid, so the masks along chunk borders come out right without waiting on neighbours
+	public void fill_chunk(int chunk_x, int chunk_y, int[] colors, int origin_x, int origin_y, int stride) {
+		int start_x = chunk_x * CHUNK_SIZE;
+		int start_y = chunk_y * CHUNK_SIZE;
+		int end_x   = Math.min(start_x + CHUNK_SIZE, width);
+		int end_y   = Math.min(start_y + CHUNK_SIZE, height);
+
+		for (int y = start_y; y < end_y; ++y) {
+			for (int x = start_x; x < end_x; ++x) {
+				int  i     = y * width + x;
+				byte value = level_of(colors[(y - origin_y) * stride + x - origin_x]);
+				level.put(i, value);
+				set_solid(x, y, value == LEVEL_WALL);
+
+				if (value == LEVEL_WALL) {
+					int result = 0;
+					if (ground(colors, origin_x, origin_y, stride, x,     y - 1)) { result |= 1 << 0; }
+					if (ground(colors, origin_x, origin_y, stride, x + 1, y    )) { result |= 1 << 1; }
+					if (ground(colors, origin_x, origin_y, stride, x,     y + 1)) { result |= 1 << 2; }
+					if (ground(colors, origin_x, origin_y, stride, x - 1, y    )) { result |= 1 << 3; }
+					if (ground(colors, origin_x, origin_y, stride, x - 1, y - 1)) { result |= 1 << 4; }
+					if (ground(colors, origin_x, origin_y, stride, x + 1, y - 1)) { result |= 1 << 5; }
+					if (ground(colors, origin_x, origin_y, stride, x + 1, y + 1)) { result |= 1 << 6; }
+					if (ground(colors, origin_x, origin_y, stride, x - 1, y + 1)) { result |= 1 << 7; }
+					mask.put(i, (byte) result);
+				} else if (value == LEVEL_GROUND && y > 0 && level_of(colors[(y - 1 - origin_y) * stride + x - origin_x]) == LEVEL_WALL) {
+					mask.put(i, (byte) 1);
+				} else {
+					mask.put(i, (byte) 0);
+				}
+			}
+		}
+
+		// Publishes the writes above to every thread that sees the new version
+		versions.incrementAndGet(chunk_y * chunks_x + chunk_x);
+	}
+
+	private static byte level_of(int color) {
+		if (color == WALL_COLOR) {
+			return LEVEL_WALL;
+		} else if (color == GROUND_COLOR) {
+			return LEVEL_GROUND;
+		} else {
+			return LEVEL_EMPTY;
+		}
+	}
+
+	private boolean ground(int[] colors, int origin_x, int origin_y, int stride, int x, int y) {
+		return in_bounds(x, y) && level_of(colors[(y - origin_y) * stride + x - origin_x]) == LEVEL_GROUND;
+	}
+
+	private void set_solid(int x, int y, boolean value) {
+		int index = y * row_longs + (x >>> 6);
+		if (value) {
+			solid.put(index, solid.get(index) |  (1L << x));
+		} else {
+			solid.put(index, solid.get(index) & ~(1L << x));
+		}
+	}
+
+	public boolean in_bounds(int x, int y) {
+		return 0 <= x && x < width && 0 <= y && y < height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getChunksX() {
+		return chunks_x;
+	}
+
+	public int getChunksY() {
+		return chunks_y;
+	}
+
+	public int chunk_version(int chunk_x, int chunk_y) {
+		return versions.get(chunk_y * chunks_x + chunk_x);
+	}
+
+	public boolean chunk_loaded(int chunk_x, int chunk_y) {
+		return chunk_version(chunk_x, chunk_y) != 0;
+	}
+
+	public boolean tile_loaded(int x, int y) {
+		return chunk_loaded(x / CHUNK_SIZE, y / CHUNK_SIZE);
+	}
+
+	// Raw tile data for writing the grid out
+	public ByteBuffer levels() {
+		return level.duplicate();
+	}
+
+	public ByteBuffer masks() {
+		return mask.duplicate();
+	}
+
+	public LongBuffer solids() {
+		return solid.duplicate();
+	}
+
+	public int level(int x, int y) {
+		return level.get(y * width + x);
+	}
+
+	public int mask(int x, int y) {
+		return mask.get(y * width + x) & 0xFF;
+	}
+
+	// Out of bounds tiles count as walls so movers can never leave the grid
+	public boolean is_wall(int x, int y) {
+		return !in_bounds(x, y) || (solid.get(y * row_longs + (x >>> 6)) & (1L << x)) != 0;
+	}
+}